@@ -20,6 +20,7 @@ protected LoaderBungeeCordPluginBootstrap() {
         this.bootstrap = new LoaderBootstrap(
             getLibrariesDirectory(),
             getTempDirectory(),
+            getSharedStoreDirectory(),
             getLogger(),
             getMainClass().getName(),
             getParentClassLoader(),
@@ -31,6 +32,9 @@ protected Object createMainInstance0(Class<?> clazz) {
                 return clazz.getDeclaredConstructor(Plugin.class).newInstance(plugin);
             }
         };
+
+        // resolve dependencies while the server loads other plugins, onLoad only waits for the rest
+        this.bootstrap.startPreparation();
     }
 
     @Override
@@ -77,7 +81,20 @@ protected ClassLoader getParentClassLoader() {
 
     protected abstract Path getLibrariesDirectory();
 
-    protected abstract Path getTempDirectory();
+    /**
+     * Not used anymore, partial files are kept inside the libraries directory.
+     */
+    @Deprecated
+    protected Path getTempDirectory() {
+        return null;
+    }
+
+    /**
+     * Override to keep dependency jars in a directory shared with other plugins using the loader.
+     */
+    protected Path getSharedStoreDirectory() {
+        return null;
+    }
 
     protected abstract Class<? extends LoaderPluginProxy> getMainClass();
 }
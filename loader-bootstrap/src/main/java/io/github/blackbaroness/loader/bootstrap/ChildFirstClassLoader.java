@@ -1,22 +1,50 @@
 package io.github.blackbaroness.loader.bootstrap;
 
+import io.github.blackbaroness.loader.runtime.relocator.RelocatedJar;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
+/**
+ * Looks up classes and resources in its own class path before asking the parent. Besides plain jars, it can read
+ * {@link RelocatedJar relocated jars}, their classes are relocated only when they are loaded.
+ */
 @SuppressWarnings("TryWithIdenticalCatches")
 public class ChildFirstClassLoader extends URLClassLoader {
 
     private final ClassLoader system;
+    private final List<RelocatedJar> relocatedJars;
+    private final List<ProtectionDomain> relocatedDomains;
+    private final List<Manifest> relocatedManifests;
 
     public ChildFirstClassLoader(URL[] classpath, ClassLoader parent) {
+        this(classpath, Collections.<RelocatedJar>emptyList(), parent);
+    }
+
+    public ChildFirstClassLoader(URL[] classpath, List<RelocatedJar> relocatedJars, ClassLoader parent) {
         super(classpath, parent);
         system = getSystemClassLoader();
+        this.relocatedJars = new ArrayList<RelocatedJar>(relocatedJars);
+        this.relocatedDomains = new ArrayList<ProtectionDomain>(relocatedJars.size());
+        this.relocatedManifests = new ArrayList<Manifest>(relocatedJars.size());
+        for (RelocatedJar jar : relocatedJars) {
+            final CodeSource codeSource = new CodeSource(toURL(jar), (CodeSigner[]) null);
+            relocatedDomains.add(new ProtectionDomain(codeSource, null, this, null));
+            relocatedManifests.add(readManifest(jar));
+        }
     }
 
     @Override
@@ -58,6 +86,108 @@ private Class<?> loadClassFromSystem(String name) throws ClassNotFoundException
         return c;
     }
 
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        try {
+            return super.findClass(name);
+        } catch (ClassNotFoundException e) {
+            if (relocatedJars.isEmpty())
+                throw e;
+        }
+
+        final String path = name.replace('.', '/') + ".class";
+        for (int i = 0; i < relocatedJars.size(); i++) {
+            final byte[] bytes;
+            try {
+                bytes = relocatedJars.get(i).read(path);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            if (bytes == null)
+                continue;
+
+            definePackageIfNeeded(name, i);
+            return defineClass(name, bytes, 0, bytes.length, relocatedDomains.get(i));
+        }
+
+        throw new ClassNotFoundException(name);
+    }
+
+    /**
+     * Defines the package like {@link URLClassLoader} does for plain jars, with the attributes of the jar manifest.
+     */
+    private void definePackageIfNeeded(String className, int jarIndex) {
+        final int index = className.lastIndexOf('.');
+        if (index == -1)
+            return;
+
+        final String packageName = className.substring(0, index);
+        if (getDefinedPackage(packageName) != null)
+            return;
+
+        try {
+            final Manifest manifest = relocatedManifests.get(jarIndex);
+            if (manifest != null) {
+                definePackage(packageName, manifest, relocatedDomains.get(jarIndex).getCodeSource().getLocation());
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException ignored) {
+            // defined by another thread in the meantime
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        URL url = super.findResource(name);
+        for (int i = 0; url == null && i < relocatedJars.size(); i++) {
+            url = relocatedJars.get(i).getUrl(name);
+        }
+        return url;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        if (relocatedJars.isEmpty())
+            return super.findResources(name);
+
+        final List<URL> urls = Collections.list(super.findResources(name));
+        for (RelocatedJar jar : relocatedJars) {
+            final URL url = jar.getUrl(name);
+            if (url != null)
+                urls.add(url);
+        }
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            for (RelocatedJar jar : relocatedJars) {
+                jar.close();
+            }
+        }
+    }
+
+    private static Manifest readManifest(RelocatedJar jar) {
+        try {
+            final byte[] bytes = jar.read(JarFile.MANIFEST_NAME);
+            return bytes == null ? null : new Manifest(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static URL toURL(RelocatedJar jar) {
+        try {
+            return jar.getPath().toUri().toURL();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     @Override
     public URL getResource(String name) {
         URL url = findResource(name);
@@ -4,6 +4,7 @@
 import io.github.blackbaroness.loader.runtime.LoaderBuilder;
 import io.github.blackbaroness.loader.runtime.LoaderUtils;
 import io.github.blackbaroness.loader.runtime.Manifest;
+import io.github.blackbaroness.loader.runtime.relocator.RelocatedJar;
 import lombok.Getter;
 import lombok.SneakyThrows;
 
@@ -11,12 +12,14 @@
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -24,7 +27,7 @@
 public abstract class LoaderBootstrap {
 
     private final Path librariesDirectory;
-    private final Path tempDirectory;
+    private final Path sharedStoreDirectory;
     private final Logger logger;
     private final String mainClassName;
     private final ClassLoader classLoader;
@@ -36,18 +39,49 @@ public abstract class LoaderBootstrap {
     @Getter
     private Object mainInstance;
 
+    private CompletableFuture<ClassLoader> classLoaderFuture;
+
     public LoaderBootstrap(Path librariesDirectory, Path tempDirectory, Logger logger, String mainClassName, ClassLoader classLoader, Path currentJarPath) {
+        this(librariesDirectory, tempDirectory, null, logger, mainClassName, classLoader, currentJarPath);
+    }
+
+    /**
+     * @param tempDirectory not used anymore and may be {@code null}, see {@link LoaderBuilder#setTempDirectory(Path)}
+     */
+    public LoaderBootstrap(Path librariesDirectory, Path tempDirectory, Path sharedStoreDirectory, Logger logger, String mainClassName, ClassLoader classLoader, Path currentJarPath) {
         this.librariesDirectory = librariesDirectory;
-        this.tempDirectory = tempDirectory;
+        this.sharedStoreDirectory = sharedStoreDirectory;
         this.logger = logger;
         this.mainClassName = mainClassName;
         this.classLoader = classLoader;
         this.currentJarPath = currentJarPath;
     }
 
+    /**
+     * Starts resolving dependencies and building the class loader in the background.
+     * Call it as early as possible, {@link #createMainInstance()} only waits for whatever is left.
+     * Calling it again returns the same future.
+     */
+    public synchronized CompletableFuture<ClassLoader> startPreparation() {
+        if (classLoaderFuture == null) {
+            classLoaderFuture = CompletableFuture.supplyAsync(this::createClassLoader, runnable -> {
+                final Thread thread = new Thread(runnable, "loader-bootstrap");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        }
+
+        return classLoaderFuture;
+    }
+
     @SneakyThrows
     public void createMainInstance() {
-        createdClassLoader = createClassLoader();
+        try {
+            createdClassLoader = startPreparation().join();
+        } catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+
         final Class<?> mainClass = createdClassLoader.loadClass(mainClassName);
         this.mainInstance = createMainInstance0(mainClass);
     }
@@ -63,27 +97,64 @@ protected ClassLoader createClassLoader(ClassLoader parent, Collection<URL> extr
         return new ChildFirstClassLoader(extraUrls.toArray(URL[]::new), parent);
     }
 
+    /**
+     * Creates the class loader with lazy relocation, see {@link Manifest#isLazyRelocation()}.
+     */
+    protected ClassLoader createClassLoader(ClassLoader parent, Collection<URL> extraUrls, List<RelocatedJar> relocatedJars) {
+        return new ChildFirstClassLoader(extraUrls.toArray(URL[]::new), relocatedJars, parent);
+    }
+
     @SneakyThrows
     private ClassLoader createClassLoader() {
         final String manifestJson = readManifestJson(currentJarPath);
 
         final Loader loader = new LoaderBuilder(librariesDirectory, manifestJson)
             .setLogger(logger)
-            .setTempDirectory(tempDirectory)
+            .setSharedStoreDirectory(sharedStoreDirectory)
             .build();
 
-        // we need to relocate the current jar as well, not only dependencies
-        final Path copyOfCurrentJar = createJarCopyOfCurrentJar();
-        final Path relocatedJar = createTempJar(tempDirectory);
-        loader.relocateJar(copyOfCurrentJar, relocatedJar);
-        Files.deleteIfExists(copyOfCurrentJar);
+        // dependencies mostly wait for the network while relocating the current jar keeps the CPU busy, so they overlap
+        final long startedAt = System.nanoTime();
+        final CompletableFuture<Long> dependenciesNanos = loader.prepareAsync().thenApply(ignored -> System.nanoTime() - startedAt);
+
+        // we need to relocate the current jar as well, not only dependencies, unless the build already did
+        // or it is relocated lazily along with them
+        final boolean relocateOwnJar = !loader.getManifest().isSelfRelocated() && !loader.getManifest().isLazyRelocation();
+        final Path relocatedJar = relocateOwnJar ? loader.relocateOwnJar(currentJarPath) : currentJarPath;
+        final long ownJarNanos = System.nanoTime() - startedAt;
+
+        try {
+            dependenciesNanos.join();
+        } catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
 
-        loader.prepare();
+        if (logger != null) {
+            final long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            final long dependenciesMillis = TimeUnit.NANOSECONDS.toMillis(dependenciesNanos.join());
+            final long ownJarMillis = TimeUnit.NANOSECONDS.toMillis(ownJarNanos);
+            logger.info("Loader: dependencies took " + dependenciesMillis + " ms, own jar took " + ownJarMillis + " ms, "
+                + "ready after " + totalMillis + " ms (" + Math.max(0, dependenciesMillis + ownJarMillis - totalMillis) + " ms overlapped)");
+        }
 
         if (logger != null)
             logger.info("Loader: creating class loader...");
 
         final Collection<URL> urls = new ArrayList<>();
+        if (loader.getManifest().isLazyRelocation()) {
+            final List<RelocatedJar> relocatedJars = new ArrayList<>();
+            if (loader.getManifest().isSelfRelocated()) {
+                urls.add(relocatedJar.toUri().toURL());
+            } else {
+                relocatedJars.add(loader.openRelocatedJar(currentJarPath));
+            }
+            for (Manifest.Dependency dependency : loader.getResolvedDependencies()) {
+                relocatedJars.add(loader.openRelocatedJar(dependency.getJarFile()));
+            }
+
+            return createClassLoader(classLoader, urls, relocatedJars);
+        }
+
         urls.add(relocatedJar.toUri().toURL());
         for (Manifest.Dependency dependency : loader.getResolvedDependencies()) {
             urls.add(LoaderUtils.toURL(dependency.getJarFile()));
@@ -104,24 +175,4 @@ private String readManifestJson(Path path) throws IOException {
             }
         }
     }
-
-    @SneakyThrows
-    private Path createJarCopyOfCurrentJar() {
-        final Path path = createTempJar(tempDirectory);
-        Files.copy(currentJarPath, path, StandardCopyOption.REPLACE_EXISTING);
-        return path;
-    }
-
-    @SneakyThrows
-    private Path createTempJar(Path directory) {
-        final Path path;
-        if (directory == null) {
-            path = Files.createTempFile(null, ".jar");
-        } else {
-            path = Files.createTempFile(directory, null, ".jar");
-        }
-
-        path.toFile().deleteOnExit();
-        return path;
-    }
 }
@@ -9,6 +9,7 @@
 }
 
 dependencies {
+    implementation(projects.loaderRuntime)
 }
 
 kotlin {
@@ -1,6 +1,10 @@
 package io.github.blackbaroness.loader.plugin
 
 import groovy.json.JsonOutput
+import io.github.blackbaroness.loader.runtime.relocator.JarRelocator
+import io.github.blackbaroness.loader.runtime.relocator.MappingCache
+import io.github.blackbaroness.loader.runtime.relocator.Relocation
+import org.gradle.api.Action
 import org.gradle.api.DefaultTask
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.artifacts.ModuleVersionIdentifier
@@ -16,8 +20,10 @@
 import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.TaskAction
 import java.io.File
+import java.nio.file.Files
 import java.security.MessageDigest
 import java.util.HexFormat
+import java.util.zip.CRC32C
 import kotlin.collections.ArrayDeque
 import kotlin.io.path.absolutePathString
 import kotlin.io.path.createDirectories
@@ -31,15 +37,45 @@ abstract class GenerateLoaderManifestTask : DefaultTask() {
     @get:Input
     abstract val relocations: MapProperty<String, String>
 
+    /**
+     * Ant or `%regex[...]` patterns of class and resource paths a relocation is limited to, keyed by its pattern.
+     */
+    @get:Input
+    abstract val relocationIncludes: MapProperty<String, List<String>>
+
+    /**
+     * Ant or `%regex[...]` patterns of class and resource paths a relocation must leave alone, keyed by its pattern.
+     */
+    @get:Input
+    abstract val relocationExcludes: MapProperty<String, List<String>>
+
     @get:Input
     abstract val overrideRepositories: ListProperty<String>
 
+    /**
+     * Whether dependencies are kept as they are and relocated class by class when they are loaded.
+     */
+    @get:Input
+    abstract val lazyRelocation: Property<Boolean>
+
     @get:Classpath
     abstract val runtimeLibrary: Property<Configuration>
 
     init {
         relocations.convention(emptyMap())
+        relocationIncludes.convention(emptyMap())
+        relocationExcludes.convention(emptyMap())
         overrideRepositories.convention(emptyList())
+        lazyRelocation.convention(false)
+    }
+
+    fun relocate(pattern: String, target: String) = relocate(pattern, target) {}
+
+    fun relocate(pattern: String, target: String, configure: Action<RelocationSpec>) {
+        val spec = RelocationSpec().also { configure.execute(it) }
+        relocations.put(pattern, target)
+        relocationIncludes.put(pattern, spec.includes.toList())
+        relocationExcludes.put(pattern, spec.excludes.toList())
     }
 
     @TaskAction
@@ -56,9 +92,39 @@ fun generate() {
     private fun generateManifest(): Map<String, Any> = mapOf(
         "repositories" to (overrideRepositories.get().takeIf { it.isNotEmpty() } ?: generateRepositories()),
         "dependencies" to generateDependencies(),
-        "relocations" to relocations.get()
+        "relocations" to generateRelocations(),
+        // only the jar written by relocateLoaderJar is marked as relocated, it rewrites this flag in its copy
+        "selfRelocated" to false,
+        "lazyRelocation" to lazyRelocation.get(),
     )
 
+    private fun generateRelocations(): Map<String, Any> = buildMap {
+        val includes = relocationIncludes.get()
+        val excludes = relocationExcludes.get()
+        for ((pattern, target) in relocations.get()) {
+            val patternIncludes = includes[pattern].orEmpty()
+            val patternExcludes = excludes[pattern].orEmpty()
+
+            // rules without selectors keep the plain form, so their jars stay up to date
+            this[pattern] = if (patternIncludes.isEmpty() && patternExcludes.isEmpty()) target else mapOf(
+                "target" to target,
+                "includes" to patternIncludes,
+                "excludes" to patternExcludes,
+            )
+        }
+    }
+
+    private fun relocatedSha1(file: File, rules: List<Relocation>, mappingCache: MappingCache): String {
+        val output = temporaryDir.toPath().resolve(file.name)
+        try {
+            val relocator = JarRelocator(file.toPath(), output, rules).mappingCache(mappingCache)
+            relocator.run()
+            return relocator.outputSha1
+        } finally {
+            Files.deleteIfExists(output)
+        }
+    }
+
     private fun generateRepositories(): Collection<String> = buildSet {
         for (repository in project.repositories) {
             if (repository !is MavenArtifactRepository) continue
@@ -70,6 +136,8 @@ private fun generateRepositories(): Collection<String> = buildSet {
     private fun generateDependencies() = buildSet {
         val rootProject = project.rootProject
         val runtimeLibrary = runtimeLibrary.get()
+        val relocationRules = relocationRules(relocations.get(), relocationIncludes.get(), relocationExcludes.get())
+        val mappingCache = MappingCache(100_000)
 
         // contains all dependencies, may contain duplicates (same artifact, different version)
         val modulesDirty = runtimeLibrary.incoming.resolutionResult.root.dependencies.asSequence()
@@ -102,19 +170,35 @@ private fun generateDependencies() = buildSet {
 
             for (artifact in artifacts) {
                 val sha1 = sha1(artifact.file)
-                this += mapOf(
+                val dependency = mutableMapOf(
                     "group" to module.group,
                     "artifact" to module.name,
                     "version" to module.version,
                     "classifier" to artifact.classifier,
                     "sha1" to sha1,
+                    "crc32c" to crc32c(artifact.file),
                 )
+
+                // relocation is reproducible, so the runtime can verify its output against this one
+                if (relocationRules.isNotEmpty() && !lazyRelocation.get()) {
+                    dependency["relocatedSha1"] = relocatedSha1(artifact.file, relocationRules, mappingCache)
+                }
+
+                this += dependency
                 logger.info("Resolved $artifact to sha1=$sha1")
             }
         }
     }
 }
 
+internal fun relocationRules(
+    relocations: Map<String, String>,
+    includes: Map<String, List<String>>,
+    excludes: Map<String, List<String>>,
+): List<Relocation> = relocations.map { (pattern, target) ->
+    Relocation(pattern, target, includes[pattern].orEmpty(), excludes[pattern].orEmpty())
+}
+
 private fun getModuleVersions(dependencyResult: DependencyResult): Set<ModuleVersionIdentifier> {
     val result = mutableSetOf<ModuleVersionIdentifier>()
     val stack = ArrayDeque<DependencyResult>()
@@ -168,3 +252,15 @@ private fun sha1(file: File): String {
     }
     return HexFormat.of().formatHex(digest.digest())
 }
+
+private fun crc32c(file: File): String {
+    val checksum = CRC32C()
+    file.inputStream().use { input ->
+        val buffer = ByteArray(8192)
+        var read: Int
+        while (input.read(buffer).also { read = it } > 0) {
+            checksum.update(buffer, 0, read)
+        }
+    }
+    return "%08x".format(checksum.value)
+}
@@ -2,6 +2,7 @@
 
 import org.gradle.api.Plugin
 import org.gradle.api.Project
+import org.gradle.jvm.tasks.Jar
 
 class LoaderPlugin : Plugin<Project> {
 
@@ -13,9 +14,25 @@ override fun apply(project: Project) {
         project.configurations.getByName("testCompileClasspath") { extendsFrom(runtimeLibrary) }
         project.configurations.getByName("testRuntimeClasspath") { extendsFrom(runtimeLibrary) }
 
-        project.tasks.register("generateLoaderManifest", GenerateLoaderManifestTask::class.java) {
+        val generateManifest = project.tasks.register("generateLoaderManifest", GenerateLoaderManifestTask::class.java) {
             this.runtimeLibrary.set(runtimeLibrary)
             this.outputFile.set(project.layout.buildDirectory.dir("generated").map { it.file("loader-manifest.json") })
         }
+
+        val relocateJar = project.tasks.register("relocateLoaderJar", RelocateLoaderJarTask::class.java) {
+            relocations.convention(generateManifest.flatMap { it.relocations })
+            relocationIncludes.convention(generateManifest.flatMap { it.relocationIncludes })
+            relocationExcludes.convention(generateManifest.flatMap { it.relocationExcludes })
+            outputJar.convention(inputJar.map { jar ->
+                project.layout.buildDirectory.file("libs/${jar.asFile.nameWithoutExtension}-relocated.jar").get()
+            })
+        }
+
+        project.pluginManager.withPlugin("java") {
+            relocateJar.configure {
+                inputJar.convention(project.tasks.named("jar", Jar::class.java).flatMap { it.archiveFile })
+            }
+            project.tasks.named("assemble") { dependsOn(relocateJar) }
+        }
     }
 }
@@ -0,0 +1,99 @@
+package io.github.blackbaroness.loader.plugin
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import io.github.blackbaroness.loader.runtime.relocator.JarRelocator
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+/**
+ * Relocates the jar of the project with the same engine the runtime uses, so the bootstrap doesn't have to
+ * relocate it on every start. The loader manifest inside the relocated jar is marked as `selfRelocated`,
+ * the input jar keeps its manifest as it is.
+ */
+abstract class RelocateLoaderJarTask : DefaultTask() {
+
+    @get:InputFile
+    @get:PathSensitive(PathSensitivity.NONE)
+    abstract val inputJar: RegularFileProperty
+
+    @get:OutputFile
+    abstract val outputJar: RegularFileProperty
+
+    @get:Input
+    abstract val relocations: MapProperty<String, String>
+
+    @get:Input
+    abstract val relocationIncludes: MapProperty<String, List<String>>
+
+    @get:Input
+    abstract val relocationExcludes: MapProperty<String, List<String>>
+
+    @TaskAction
+    fun relocate() {
+        val input = inputJar.asFile.get().toPath()
+        val output = outputJar.asFile.get().toPath()
+        val rules = relocationRules(relocations.get(), relocationIncludes.get(), relocationExcludes.get())
+
+        // the relocator writes every entry with a fixed time, so marking a copy first keeps the output reproducible
+        val marked = temporaryDir.toPath().resolve("marked.jar")
+        if (!markSelfRelocated(input, marked)) {
+            logger.warn("$input does not contain $MANIFEST_ENTRY, the bootstrap will not find it in the relocated jar")
+        }
+
+        JarRelocator(marked, output, rules).run()
+        Files.delete(marked)
+        logger.info("Relocated $input to $output")
+    }
+
+    /**
+     * Copies the jar, setting `selfRelocated` in its loader manifest.
+     *
+     * @return whether the jar contains a loader manifest
+     */
+    private fun markSelfRelocated(input: Path, output: Path): Boolean {
+        var found = false
+        val names = HashSet<String>()
+
+        ZipFile(input.toFile()).use { zipIn ->
+            ZipOutputStream(Files.newOutputStream(output)).use { zipOut ->
+                for (entry in zipIn.entries()) {
+                    // like in a relocated jar, the first entry of a name wins
+                    if (!names.add(entry.name)) continue
+
+                    zipOut.putNextEntry(ZipEntry(entry.name))
+                    zipIn.getInputStream(entry).use { entryIn ->
+                        if (entry.name == MANIFEST_ENTRY) {
+                            found = true
+                            @Suppress("UNCHECKED_CAST")
+                            val manifest = LinkedHashMap(JsonSlurper().parse(entryIn) as Map<String, Any?>)
+                            manifest["selfRelocated"] = true
+                            zipOut.write(JsonOutput.prettyPrint(JsonOutput.toJson(manifest)).toByteArray())
+                        } else {
+                            entryIn.copyTo(zipOut)
+                        }
+                    }
+                    zipOut.closeEntry()
+                }
+            }
+        }
+
+        return found
+    }
+
+    private companion object {
+        const val MANIFEST_ENTRY = "loader-manifest.json"
+    }
+}
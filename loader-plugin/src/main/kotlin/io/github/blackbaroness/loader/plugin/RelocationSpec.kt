@@ -0,0 +1,18 @@
+package io.github.blackbaroness.loader.plugin
+
+/**
+ * Limits a relocation to some class and resource paths, as Ant patterns, or `%regex[...]` for a regular expression.
+ */
+class RelocationSpec {
+
+    internal val includes = mutableListOf<String>()
+    internal val excludes = mutableListOf<String>()
+
+    fun include(vararg patterns: String) {
+        includes += patterns
+    }
+
+    fun exclude(vararg patterns: String) {
+        excludes += patterns
+    }
+}
@@ -13,6 +13,10 @@
     implementation(libs.nanojson)
     implementation(libs.asm.main)
     implementation(libs.asm.commons)
+
+    testImplementation(platform(libs.junit.bom))
+    testImplementation(libs.junit.jupiter)
+    testRuntimeOnly(libs.junit.platform.launcher)
 }
 
 java {
@@ -21,6 +25,30 @@
     }
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
+// benchmarks are plain main classes, they are run on demand and never as a part of the build
+val benchmark by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+
+tasks.register<JavaExec>("hashingBenchmark") {
+    group = "benchmark"
+    description = "Compares HashingService with a plain buffered loop on a cold and a warm page cache."
+    classpath = benchmark.runtimeClasspath
+    mainClass = "io.github.blackbaroness.loader.runtime.HashingBenchmark"
+}
+
+tasks.register<JavaExec>("relocationBenchmark") {
+    group = "benchmark"
+    description = "Compares the size, relocation time and class loading time of every output compression."
+    classpath = benchmark.runtimeClasspath
+    mainClass = "io.github.blackbaroness.loader.runtime.relocator.RelocationBenchmark"
+}
+
 mavenPublishing {
     publishToMavenCentral()
     signAllPublications()
@@ -0,0 +1,145 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link HashingService} with the loop the loader used before it: one file after another,
+ * read through an 8 KB heap buffer into SHA-1.
+ * <p>
+ * A cold page cache is measured by dropping the caches of the kernel before every run, which needs root on Linux.
+ * Without it only the warm runs are reported. The files should be placed on a real disk, the default temporary
+ * directory may be backed by memory. Arguments: number of files, megabytes per file, runs, directory.
+ */
+public final class HashingBenchmark {
+
+    private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+
+    public static void main(String[] args) throws Exception {
+        final int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        final Path directory = args.length > 3
+            ? Files.createTempDirectory(Paths.get(args[3]), "hashing-benchmark")
+            : Files.createTempDirectory("hashing-benchmark");
+        try (HashingService hashingService = new HashingService(threads)) {
+            final List<Path> files = createFiles(directory, fileCount, megabytes);
+            final boolean coldSupported = dropCaches();
+            System.out.printf("%d files of %d MB, %d hashing threads, best of %d runs%n", fileCount, megabytes, threads, runs);
+            if (!coldSupported) System.out.println("cannot write " + DROP_CACHES + ", cold runs are skipped");
+
+            final List<Candidate> candidates = List.of(
+                new Candidate("8 KB heap buffer, SHA-1", () -> {
+                    for (final Path file : files) legacySha1(file);
+                }),
+                new Candidate("HashingService, SHA-1", () -> hashAll(hashingService, files, HashAlgorithm.SHA1)),
+                new Candidate("HashingService, CRC32C", () -> hashAll(hashingService, files, HashAlgorithm.CRC32C)),
+                new Candidate("HashingService, SHA-1 + CRC32C", () -> hashAll(hashingService, files, HashAlgorithm.SHA1, HashAlgorithm.CRC32C))
+            );
+
+            // the first pass only warms up the JIT
+            for (final Candidate candidate : candidates) candidate.action.run();
+
+            System.out.printf("%-32s %10s %10s%n", "", "cold", "warm");
+            for (final Candidate candidate : candidates) {
+                final String cold = coldSupported ? format(measure(candidate.action, runs, true)) : "-";
+                final String warm = format(measure(candidate.action, runs, false));
+                System.out.printf("%-32s %10s %10s%n", candidate.name, cold, warm);
+            }
+        } finally {
+            LoaderUtils.removeFilesFromDirectory(directory, Collections.emptySet());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static List<Path> createFiles(Path directory, int count, int megabytes) throws IOException {
+        final Random random = new Random(1);
+        final byte[] content = new byte[megabytes * 1024 * 1024];
+        final List<Path> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            final Path file = directory.resolve(i + ".jar");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                // dirty pages can't be dropped
+                channel.force(true);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static long measure(ThrowingRunnable action, int runs, boolean cold) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            if (cold) dropCaches();
+            final long startedAt = System.nanoTime();
+            action.run();
+            best = Math.min(best, System.nanoTime() - startedAt);
+        }
+        return best;
+    }
+
+    private static boolean dropCaches() {
+        try {
+            Files.write(DROP_CACHES, "1".getBytes());
+            return true;
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static void hashAll(HashingService hashingService, List<Path> files, HashAlgorithm... algorithms) {
+        final List<CompletableFuture<String[]>> futures = new ArrayList<>(files.size());
+        for (final Path file : files) futures.add(hashingService.submit(file, algorithms));
+        futures.forEach(CompletableFuture::join);
+    }
+
+    /**
+     * What {@code LoaderUtils.sha1(Path)} did before {@link HashingService} existed.
+     */
+    private static String legacySha1(Path path) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1024 * 8);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return LoaderUtils.bytesToHex(digest.digest());
+    }
+
+    private static String format(long nanos) {
+        return String.format("%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Candidate {
+        private final String name;
+        private final ThrowingRunnable action;
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import io.github.blackbaroness.loader.runtime.LoaderUtils;
+import io.github.blackbaroness.loader.runtime.OutputCompression;
+import org.objectweb.asm.ClassReader;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures what each {@link OutputCompression} costs: the size of the relocated jar, the time to relocate it
+ * and the time to load every class of it through a fresh {@link URLClassLoader}.
+ * Arguments: the jar to relocate (ASM by default), runs.
+ */
+public final class RelocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Path jar = args.length > 0 ? Paths.get(args[0]) : Paths.get(ClassReader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<Relocation> relocations = List.of(new Relocation("org.objectweb.asm", "x.asm"));
+
+        Path directory = Files.createTempDirectory("relocation-benchmark");
+        try {
+            System.out.printf("%s, best of %d runs after a warmup%n", jar.getFileName(), runs);
+            System.out.printf("%-8s %10s %12s %12s%n", "", "size", "relocation", "loading");
+            for (OutputCompression compression : OutputCompression.values()) {
+                Path output = directory.resolve(compression + ".jar");
+
+                long relocationNanos = Long.MAX_VALUE;
+                for (int run = 0; run <= runs; run++) {
+                    long startedAt = System.nanoTime();
+                    new JarRelocator(jar, output, relocations).compressOutput(compression).run();
+                    long nanos = System.nanoTime() - startedAt;
+                    if (run > 0) relocationNanos = Math.min(relocationNanos, nanos);
+                }
+
+                List<String> classNames = getClassNames(output);
+                long loadingNanos = Long.MAX_VALUE;
+                for (int run = 0; run <= runs; run++) {
+                    long nanos = loadClasses(output, classNames);
+                    if (run > 0) loadingNanos = Math.min(loadingNanos, nanos);
+                }
+
+                System.out.printf("%-8s %8d B %12s %12s%n", compression, Files.size(output), format(relocationNanos), format(loadingNanos));
+            }
+        } finally {
+            LoaderUtils.removeFilesFromDirectory(directory, Collections.emptySet());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static List<String> getClassNames(Path jar) throws Exception {
+        List<String> result = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.endsWith("module-info.class")) {
+                    result.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how long a fresh class loader took to define every class of the jar, without initializing them
+     */
+    private static long loadClasses(Path jar, List<String> classNames) throws Exception {
+        long startedAt = System.nanoTime();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, ClassLoader.getPlatformClassLoader())) {
+            for (String className : classNames) {
+                Class.forName(className, false, classLoader);
+            }
+            return System.nanoTime() - startedAt;
+        }
+    }
+
+    private static String format(long nanos) {
+        return String.format("%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * Digests supported by the loader. SHA-1 is what Maven repositories publish and what the manifest is anchored to,
+ * CRC32C is a much cheaper checksum that is good enough to detect local corruption.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum HashAlgorithm {
+
+    SHA1("sha1") {
+        @Override
+        public Hasher newHasher() {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+
+            return new Hasher() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    digest.update(buffer);
+                }
+
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    digest.update(bytes, offset, length);
+                }
+
+                @Override
+                public String digest() {
+                    return LoaderUtils.bytesToHex(digest.digest());
+                }
+            };
+        }
+    },
+
+    CRC32C("crc32c") {
+        @Override
+        public Hasher newHasher() {
+            final CRC32C checksum = new CRC32C();
+            return new Hasher() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    checksum.update(buffer);
+                }
+
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    checksum.update(bytes, offset, length);
+                }
+
+                @Override
+                public String digest() {
+                    return String.format("%08x", checksum.getValue());
+                }
+            };
+        }
+    };
+
+    /**
+     * The name used for this algorithm in the manifest and in the loader's own metadata.
+     */
+    private final String id;
+
+    public abstract Hasher newHasher();
+
+    public static HashAlgorithm fromId(String id) {
+        for (final HashAlgorithm algorithm : values()) {
+            if (algorithm.id.equals(id)) return algorithm;
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm '" + id + "'");
+    }
+}
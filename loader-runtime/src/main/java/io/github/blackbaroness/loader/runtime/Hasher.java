@@ -0,0 +1,20 @@
+package io.github.blackbaroness.loader.runtime;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental digest computation created by {@link HashAlgorithm#newHasher()}.
+ */
+public interface Hasher {
+
+    void update(ByteBuffer buffer);
+
+    void update(byte[] bytes, int offset, int length);
+
+    /**
+     * Completes the computation.
+     *
+     * @return the hex encoded digest
+     */
+    String digest();
+}
@@ -0,0 +1,95 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.SneakyThrows;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes files on a dedicated, bounded pool, so verification of many jars runs in parallel
+ * without competing with threads that wait for the network.
+ * <p>
+ * Large files are memory-mapped and fed to the digest without copying them into the heap.
+ * Windows is excluded, because a mapping keeps the file locked until it is garbage collected.
+ */
+public class HashingService implements AutoCloseable {
+
+    private static final long MAPPING_THRESHOLD = 1024 * 1024;
+    private static final long MAPPING_CHUNK_SIZE = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final boolean MAPPING_SUPPORTED = File.separatorChar == '/';
+
+    private final ExecutorService executor;
+
+    public HashingService(int threads) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "loader-hashing-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Hashes the file on the pool, computing every requested digest in a single pass.
+     */
+    public CompletableFuture<String[]> submit(Path path, HashAlgorithm... algorithms) {
+        return CompletableFuture.supplyAsync(() -> hash(path, algorithms), executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static String hash(Path path, HashAlgorithm algorithm) {
+        return hash(path, new HashAlgorithm[]{algorithm})[0];
+    }
+
+    /**
+     * Hashes the file on the calling thread, computing every requested digest in a single pass.
+     */
+    @SneakyThrows
+    public static String[] hash(Path path, HashAlgorithm... algorithms) {
+        final Hasher[] hashers = new Hasher[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            hashers[i] = algorithms[i].newHasher();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (MAPPING_SUPPORTED && size >= MAPPING_THRESHOLD) {
+                for (long position = 0; position < size; position += MAPPING_CHUNK_SIZE) {
+                    final ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_CHUNK_SIZE, size - position));
+                    update(hashers, mapped);
+                }
+            } else {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    update(hashers, buffer);
+                    buffer.clear();
+                }
+            }
+        }
+
+        final String[] result = new String[hashers.length];
+        for (int i = 0; i < hashers.length; i++) {
+            result[i] = hashers[i].digest();
+        }
+        return result;
+    }
+
+    private static void update(Hasher[] hashers, ByteBuffer buffer) {
+        for (final Hasher hasher : hashers) {
+            hasher.update(buffer.duplicate());
+        }
+    }
+}
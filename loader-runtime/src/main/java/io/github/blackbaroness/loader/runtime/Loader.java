@@ -3,57 +3,200 @@
 import com.grack.nanojson.JsonArray;
 import com.grack.nanojson.JsonObject;
 import com.grack.nanojson.JsonParser;
+import io.github.blackbaroness.loader.runtime.download.DownloadScheduler;
+import io.github.blackbaroness.loader.runtime.download.Downloader;
+import io.github.blackbaroness.loader.runtime.download.RepositoryHealth;
+import io.github.blackbaroness.loader.runtime.download.Transfer;
 import io.github.blackbaroness.loader.runtime.relocator.JarRelocator;
+import io.github.blackbaroness.loader.runtime.relocator.MappingCache;
+import io.github.blackbaroness.loader.runtime.relocator.RelocatedJar;
+import io.github.blackbaroness.loader.runtime.relocator.Relocation;
 import lombok.Getter;
 import lombok.SneakyThrows;
+import lombok.Value;
 
+import java.io.IOException;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Loader {
 
+    private static final int MAX_PARALLEL_ATTEMPTS = 2;
+    private static final long HEDGE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(3);
+    private static final double HEDGE_BELOW_BYTES_PER_SECOND = 256 * 1024;
+    private static final long HEDGE_CHECK_INTERVAL_MILLIS = 250;
+    private static final int MAPPING_CACHE_SIZE = 100_000;
+
     private final Path directory;
-    private final Path tempDirectory;
+    private final Path metadataDirectory;
+    private final Path stagingDirectory;
     private final Logger logger;
     private final boolean removeUnusedJars;
+    private final boolean paranoidVerification;
+    private final HashAlgorithm localDigest;
+    @Getter
     private final Manifest manifest;
+    private final String manifestFingerprint;
+    private final VerificationIndex verificationIndex;
+    private final SharedStore sharedStore;
+    private final List<LocalRepository> localRepositories;
+    private final List<String> networkRepositories;
+    private final DownloadScheduler downloadScheduler;
+    private final OutputCompression outputCompression;
+
+    /**
+     * Mapped names shared by every jar this loader relocates, its counters show how much it saves.
+     */
+    @Getter
+    private final MappingCache mappingCache = new MappingCache(MAPPING_CACHE_SIZE);
 
     private HttpClient httpClient;
+    private Downloader downloader;
+    private RepositoryHealth repositoryHealth;
+    private HashingService hashingService;
+    private ExecutorService attemptExecutor;
+    private Stage fetchStage;
+    private Stage relocateStage;
+    private Stage persistStage;
+
+    private final Map<Manifest.Dependency, CompletableFuture<Manifest.Dependency>> dependencyFutures = new HashMap<>();
+    private CompletableFuture<Set<Manifest.Dependency>> preparation;
+    private volatile Path ownJar;
+    private volatile Path ownJarSource;
 
     @Getter
-    private Set<Manifest.Dependency> resolvedDependencies;
+    private volatile Set<Manifest.Dependency> resolvedDependencies;
 
-    @SneakyThrows
+    /**
+     * @param tempDirectory not used anymore, see {@link LoaderBuilder#setTempDirectory(Path)}
+     * @deprecated use {@link LoaderBuilder}
+     */
+    @Deprecated
     public Loader(Path directory, Path tempDirectory, String manifestJson, Logger logger, boolean removeUnusedJars) {
+        this(directory, manifestJson, logger, removeUnusedJars, false, HashAlgorithm.SHA1, null, Collections.emptyList(), DownloadScheduler.UNLIMITED, false, OutputCompression.MAX);
+    }
+
+    /**
+     * Every other option is set through {@link LoaderBuilder}.
+     */
+    @SneakyThrows
+    Loader(Path directory, String manifestJson, Logger logger, boolean removeUnusedJars, boolean paranoidVerification, HashAlgorithm localDigest, Path sharedStoreDirectory, Collection<LocalRepository> localRepositories, DownloadScheduler downloadScheduler, boolean portableIndex, OutputCompression outputCompression) {
         this.directory = directory;
-        this.tempDirectory = tempDirectory;
+        this.metadataDirectory = directory.resolve(".loader");
+        this.stagingDirectory = metadataDirectory.resolve("staging");
         this.logger = logger;
         this.removeUnusedJars = removeUnusedJars;
-        this.manifest = loadManifest(manifestJson);
+        this.paranoidVerification = paranoidVerification;
+        this.localDigest = localDigest;
+        this.downloadScheduler = downloadScheduler;
+        this.outputCompression = outputCompression;
+        this.sharedStore = sharedStoreDirectory == null ? null : new SharedStore(sharedStoreDirectory, directory, logger);
+        this.manifest = loadManifest(manifestJson, sharedStore == null ? directory : sharedStore.getDirectory());
+        this.manifestFingerprint = LoaderUtils.sha1(manifestJson);
+        this.verificationIndex = new VerificationIndex(metadataDirectory.resolve("index.json"), directory, logger, portableIndex);
+
+        // file: repositories are mirrors on disk, they belong to the local tier
+        this.localRepositories = new ArrayList<>(localRepositories);
+        this.networkRepositories = new ArrayList<>(manifest.getRepositories().size());
+        for (final String repository : manifest.getRepositories()) {
+            if (repository.startsWith("file:")) {
+                this.localRepositories.add(LocalRepository.mavenLayout(Paths.get(URI.create(repository))));
+            } else {
+                this.networkRepositories.add(repository);
+            }
+        }
+
+        for (final Manifest.Dependency dependency : manifest.getDependencies()) {
+            dependencyFutures.put(dependency, new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Runs {@link #prepare()} on a background thread, so the caller can do something else meanwhile.
+     * Calling it again returns the same future.
+     *
+     * @return a future that completes with the resolved dependencies
+     */
+    public synchronized CompletableFuture<Set<Manifest.Dependency>> prepareAsync() {
+        if (preparation == null) {
+            preparation = CompletableFuture.supplyAsync(() -> {
+                prepare();
+                return resolvedDependencies;
+            }, runnable -> {
+                final Thread thread = new Thread(runnable, "loader-prepare");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        }
+
+        return preparation;
+    }
 
-        LoaderUtils.removeFilesFromDirectory(tempDirectory, Collections.emptySet());
-        Files.createDirectories(tempDirectory);
+    /**
+     * @return a future that completes as soon as this dependency is resolved and verified,
+     * which may be long before the whole preparation is done
+     */
+    public CompletableFuture<Manifest.Dependency> getDependencyFuture(Manifest.Dependency dependency) {
+        final CompletableFuture<Manifest.Dependency> future = dependencyFutures.get(dependency);
+        if (future == null) throw new IllegalArgumentException(dependency + " is not in the manifest");
+        return future;
     }
 
     public void prepare() {
-        resolvedDependencies = resolveDependencies();
+        try {
+            prepare0();
+        } catch (Throwable t) {
+            dependencyFutures.values().forEach(future -> future.completeExceptionally(t));
+            throw t;
+        }
+    }
+
+    private void prepare0() {
+        // refreshed on every start, so the shared store knows this owner is still alive,
+        // and before anything is fetched, so a cleanup by another loader meanwhile keeps the entries it is about to create
+        if (sharedStore != null)
+            sharedStore.register(manifest.getDependencies().stream().map(Manifest.Dependency::getJarFile).collect(Collectors.toUnmodifiableList()));
+
+        if (isUpToDate()) {
+            // nothing changed since the last verified start, a stat sweep was enough
+            if (logger != null) logger.info("Loader: all dependencies are up to date");
+            resolvedDependencies = manifest.getDependencies();
+            dependencyFutures.forEach((dependency, future) -> future.complete(dependency));
+        } else {
+            resolvedDependencies = resolveDependencies();
+
+            // every dependency is in place, partial downloads won't be needed anymore
+            LoaderUtils.removeFilesFromDirectory(stagingDirectory, Collections.emptySet());
+            verificationIndex.retain(getIndexedFiles(resolvedDependencies));
+            verificationIndex.setFingerprint(manifestFingerprint);
+            verificationIndex.save();
+        }
+
         if (removeUnusedJars) removeUnusedJars(resolvedDependencies);
     }
 
+    /**
+     * Creates a class loader over the resolved dependencies.
+     *
+     * @throws IllegalStateException if dependencies are relocated lazily, their jars on disk are not relocated then,
+     *                               see {@link #openRelocatedJar(Path)}
+     */
     public URLClassLoader loadToNewClassLoader(ClassLoader base, Collection<URL> extraUrls) {
+        if (manifest.isLazyRelocation())
+            throw new IllegalStateException("Dependencies are relocated lazily, load them through openRelocatedJar() instead");
+
         if (logger != null) logger.info("Loader: creating isolated class loader...");
 
         final URL[] urls = Stream.concat(
@@ -66,32 +209,140 @@ public URLClassLoader loadToNewClassLoader(ClassLoader base, Collection<URL> ext
 
     @SneakyThrows
     public void relocateJar(Path input, Path output) {
-        if (manifest.getRelocations().isEmpty()) {
+        if (manifest.getRelocationRules().isEmpty()) {
             // we can avoid using ASM and simply copy the jar
             Files.createDirectories(output.getParent());
             Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
             return;
         }
 
-        new JarRelocator(input, output, manifest.getRelocations()).run();
+        new JarRelocator(input, output, manifest.getRelocationRules())
+            .compressOutput(outputCompression)
+            .mappingCache(mappingCache)
+            .run();
+    }
+
+    /**
+     * Opens a jar whose classes are relocated as they are read, see {@link Manifest#isLazyRelocation()}.
+     * The caller is responsible for closing it.
+     */
+    @SneakyThrows
+    public RelocatedJar openRelocatedJar(Path jar) {
+        return new RelocatedJar(jar, manifest.getRelocationRules(), mappingCache);
     }
 
+    /**
+     * Relocates the jar the manifest came from into the libraries directory, named after its SHA-1 and the relocations.
+     * Later starts with the same jar and relocations reuse it after verifying it like a dependency,
+     * other versions of it are removed. The jar itself is only hashed again when the index says it changed.
+     *
+     * @return the relocated jar
+     */
     @SneakyThrows
-    private Manifest loadManifest(String manifestJson) {
+    public Path relocateOwnJar(Path jar) {
+        final Path ownJarDirectory = metadataDirectory.resolve("own");
+        final String jarHash = getOwnJarSha1(jar);
+        final Path output = ownJarDirectory.resolve(jarHash + "-" + manifest.getRelocationsHash() + ".jar");
+        final Path outputSha1 = output.resolveSibling(output.getFileName() + ".sha1");
+
+        // kept in the index even if a concurrent prepare() saves it before this one is done
+        ownJar = output;
+
+        if (Files.exists(output) && Files.exists(outputSha1)) {
+            final String expectedHash = Files.readString(outputSha1);
+            if (!paranoidVerification && expectedHash.equals(verificationIndex.getVerifiedDigest(output))) {
+                return output;
+            }
+            if (expectedHash.equals(LoaderUtils.sha1(output))) {
+                verificationIndex.record(output, expectedHash);
+                verificationIndex.save();
+                return output;
+            }
+        }
+
+        if (logger != null) logger.info("Loader: relocating " + jar.getFileName() + "...");
+
+        Files.createDirectories(ownJarDirectory);
+        final Path partialOutput = Files.createTempFile(ownJarDirectory, output.getFileName().toString(), ".part");
+        final String hash;
+        try {
+            if (manifest.getRelocationRules().isEmpty()) {
+                Files.copy(jar, partialOutput, StandardCopyOption.REPLACE_EXISTING);
+                hash = jarHash;
+            } else {
+                final JarRelocator relocator = new JarRelocator(jar, partialOutput, manifest.getRelocationRules())
+                    .compressOutput(outputCompression)
+                    .mappingCache(mappingCache);
+                relocator.run();
+                hash = relocator.getOutputSha1();
+            }
+
+            LoaderUtils.moveAtomically(partialOutput, output);
+        } finally {
+            // already moved in place unless something failed
+            Files.deleteIfExists(partialOutput);
+        }
+        Files.writeString(outputSha1, hash);
+
+        // jars of other versions or relocations won't be used again
+        try (Stream<Path> files = Files.list(ownJarDirectory)) {
+            files.filter(file -> !file.equals(output)).forEach(verificationIndex::forget);
+        }
+        LoaderUtils.removeFilesFromDirectory(ownJarDirectory, Set.of(output, outputSha1));
+
+        verificationIndex.record(output, hash);
+        verificationIndex.save();
+        return output;
+    }
+
+    private String getOwnJarSha1(Path jar) {
+        ownJarSource = jar;
+        final String recordedHash = paranoidVerification ? null : verificationIndex.getVerifiedDigest(jar);
+        if (recordedHash != null) return recordedHash;
+
+        final String hash = HashingService.hash(jar, HashAlgorithm.SHA1);
+        verificationIndex.record(jar, hash);
+        verificationIndex.save();
+        return hash;
+    }
+
+    @SneakyThrows
+    private Manifest loadManifest(String manifestJson, Path jarDirectory) {
         final JsonObject root = JsonParser.object().from(manifestJson);
 
-        final JsonArray repositoriesArray = root.getArray("repositories");
-        final Set<String> repositories = new LinkedHashSet<>(repositoriesArray.size());
-        for (int i = 0; i < repositoriesArray.size(); i++) {
-            repositories.add(repositoriesArray.getString(i));
+        final Set<String> repositories = new LinkedHashSet<>(readStrings(root.getArray("repositories")));
+
+        // a rule is either "pattern": "target", or "pattern": {"target": ..., "includes": [...], "excludes": [...]}
+        final JsonObject relocationsObject = root.getObject("relocations");
+        final Map<String, String> relocationTargets = new LinkedHashMap<>(relocationsObject.size());
+        final List<Relocation> relocations = new ArrayList<>(relocationsObject.size());
+        for (final Map.Entry<String, Object> entry : relocationsObject.entrySet()) {
+            if (entry.getValue() instanceof JsonObject) {
+                final JsonObject rule = (JsonObject) entry.getValue();
+                relocationTargets.put(entry.getKey(), rule.getString("target"));
+                relocations.add(new Relocation(entry.getKey(), rule.getString("target"), readStrings(rule.getArray("includes")), readStrings(rule.getArray("excludes"))));
+            } else {
+                relocationTargets.put(entry.getKey(), entry.getValue().toString());
+                relocations.add(new Relocation(entry.getKey(), entry.getValue().toString()));
+            }
         }
 
-        final Map<String, String> relocations = new LinkedHashMap<>();
-        for (final Map.Entry<String, Object> entry : root.getObject("relocations").entrySet()) {
-            relocations.put(entry.getKey(), entry.getValue().toString());
+        // lazily relocated jars are stored as they are, under the same names jars without relocations have
+        final boolean lazyRelocation = root.getBoolean("lazyRelocation", false) && !relocations.isEmpty();
+
+        // jars relocated with another compression are different files, the default keeps the names it always had,
+        // and so do jars that are not relocated at all
+        final String relocationsHash;
+        if (lazyRelocation) {
+            relocationsHash = LoaderUtils.sha1(new JsonObject());
+        } else if (outputCompression == OutputCompression.MAX || relocations.isEmpty()) {
+            relocationsHash = LoaderUtils.sha1(relocationsObject);
+        } else {
+            relocationsHash = LoaderUtils.sha1(relocationsObject) + "-" + outputCompression.name().toLowerCase(Locale.ROOT);
         }
 
-        final String relocationsHash = LoaderUtils.sha1(relocations);
+        // the build only knows how relocated jars look with the default compression
+        final boolean relocatedSha1Applies = !relocations.isEmpty() && !lazyRelocation && outputCompression == OutputCompression.MAX;
         final JsonArray dependenciesArray = root.getArray("dependencies");
         final Set<Manifest.Dependency> dependencies = new LinkedHashSet<>(dependenciesArray.size());
         for (int i = 0; i < dependenciesArray.size(); i++) {
@@ -103,13 +354,45 @@ private Manifest loadManifest(String manifestJson) {
                     dependencyObject.getString("version"),
                     dependencyObject.getString("classifier"),
                     dependencyObject.getString("sha1"),
-                    directory,
+                    dependencyObject.getString("crc32c"),
+                    relocatedSha1Applies ? dependencyObject.getString("relocatedSha1") : null,
+                    jarDirectory,
                     relocationsHash
                 )
             );
         }
 
-        return new Manifest(repositories, dependencies, relocations);
+        return new Manifest(repositories, dependencies, relocationTargets, relocations, relocationsHash, root.getBoolean("selfRelocated", false), lazyRelocation);
+    }
+
+    private static List<String> readStrings(JsonArray array) {
+        if (array == null) return Collections.emptyList();
+
+        final List<String> strings = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            strings.add(array.getString(i));
+        }
+        return strings;
+    }
+
+    private List<Path> getIndexedFiles(Set<Manifest.Dependency> dependencies) {
+        final List<Path> files = dependencies.stream().map(Manifest.Dependency::getJarFile).collect(Collectors.toCollection(ArrayList::new));
+        if (ownJar != null) files.add(ownJar);
+        if (ownJarSource != null) files.add(ownJarSource);
+        return files;
+    }
+
+    private boolean isUpToDate() {
+        if (paranoidVerification || !verificationIndex.matchesFingerprint(manifestFingerprint))
+            return false;
+
+        for (final Manifest.Dependency dependency : manifest.getDependencies()) {
+            final String expectedHash = getExpectedJarSha1(dependency);
+            if (expectedHash == null || !expectedHash.equals(verificationIndex.getVerifiedDigest(dependency.getJarFile())))
+                return false;
+        }
+
+        return true;
     }
 
     private Set<Manifest.Dependency> resolveDependencies() {
@@ -118,61 +401,168 @@ private Set<Manifest.Dependency> resolveDependencies() {
             .version(HttpClient.Version.HTTP_2)
             .connectTimeout(Duration.ofSeconds(10))
             .build();
+        downloader = new Downloader(httpClient, downloadScheduler);
+        repositoryHealth = new RepositoryHealth(metadataDirectory.resolve("repositories.json"), logger);
+        attemptExecutor = Executors.newCachedThreadPool();
+
+        // fetch threads mostly wait for the network, so there are more of them than cores,
+        // while verification (hashing) and relocation are kept to one thread per core
+        final int cores = Runtime.getRuntime().availableProcessors();
+        hashingService = new HashingService(cores);
+        fetchStage = new Stage("fetch", Math.max(4, cores * 2), Math.max(4, cores * 2));
+        relocateStage = new Stage("relocate", cores, cores * 2);
+        persistStage = new Stage("persist", 1, cores * 2);
 
         final ProgressNotifier progressNotifier = new ProgressNotifier(logger, manifest.getDependencies().size());
-        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
-        final Collection<CompletableFuture<Manifest.Dependency>> tasks = manifest.getDependencies().stream()
-            .map(dependency -> resolveDependencyAsync(dependency, executor, progressNotifier))
-            .collect(Collectors.toUnmodifiableList());
-
         final Set<Manifest.Dependency> resolvedDependencies = new LinkedHashSet<>();
         try {
             progressNotifier.start();
+            // submitting blocks while the fetch stage is full
+            final Collection<CompletableFuture<Manifest.Dependency>> tasks = manifest.getDependencies().stream()
+                .map(dependency -> resolveDependencyAsync(dependency, progressNotifier))
+                .collect(Collectors.toUnmodifiableList());
             tasks.forEach(task -> resolvedDependencies.add(task.join()));
         } finally {
             progressNotifier.interrupt();
             httpClient = null;
-            executor.shutdownNow();
+            downloader = null;
+            fetchStage.close();
+            fetchStage = null;
+            relocateStage.close();
+            relocateStage = null;
+            persistStage.close();
+            persistStage = null;
+            attemptExecutor.shutdownNow();
+            attemptExecutor = null;
+            repositoryHealth.save();
+            repositoryHealth = null;
+            hashingService.close();
+            hashingService = null;
         }
 
         return resolvedDependencies;
     }
 
-    private CompletableFuture<Manifest.Dependency> resolveDependencyAsync(Manifest.Dependency dependency, Executor executor, ProgressNotifier progressNotifier) {
-        return CompletableFuture.supplyAsync(() -> {
-            final Manifest.Dependency result = resolveDependency(dependency);
+    private CompletableFuture<Manifest.Dependency> resolveDependencyAsync(Manifest.Dependency dependency, ProgressNotifier progressNotifier) {
+        return fetchStage.submit(() -> {
+            final Manifest.Dependency result = sharedStore == null
+                ? resolveDependency(dependency)
+                : sharedStore.withEntryLock(dependency.getJarFile(), () -> resolveDependency(dependency));
             progressNotifier.increment();
             return result;
-        }, executor);
+        }).whenComplete((result, t) -> {
+            final CompletableFuture<Manifest.Dependency> future = dependencyFutures.get(dependency);
+            if (t == null) {
+                future.complete(result);
+            } else {
+                future.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            }
+        });
     }
 
     @SneakyThrows
     private Manifest.Dependency resolveDependency(Manifest.Dependency dependency) {
-        if (!Files.exists(dependency.getJarFile()) || !Files.exists(dependency.getJarSha1File())) {
+        final String expectedHash = getExpectedJarSha1(dependency);
+        if (expectedHash == null || !Files.exists(dependency.getJarFile())) {
             downloadDependency(dependency);
             return dependency;
         }
 
-        final String expectedHash = Files.readString(dependency.getJarSha1File());
-        final String actualHash = LoaderUtils.sha1(dependency.getJarFile());
-        if (!expectedHash.equals(actualHash)) {
+        if (!paranoidVerification && expectedHash.equals(verificationIndex.getVerifiedDigest(dependency.getJarFile()))) {
+            // verified before and not touched since
+            return dependency;
+        }
+
+        if (!paranoidVerification && localDigest != HashAlgorithm.SHA1) {
+            // the file was touched, but a cheaper digest may still prove it is intact
+            final String recordedLocalHash = verificationIndex.getLocalDigest(dependency.getJarFile(), expectedHash, localDigest);
+            if (recordedLocalHash != null && recordedLocalHash.equals(hashingService.submit(dependency.getJarFile(), localDigest).join()[0])) {
+                verificationIndex.record(dependency.getJarFile(), expectedHash, localDigest, recordedLocalHash);
+                return dependency;
+            }
+        }
+
+        final String[] actualHashes = localDigest == HashAlgorithm.SHA1
+            ? hashingService.submit(dependency.getJarFile(), HashAlgorithm.SHA1).join()
+            : hashingService.submit(dependency.getJarFile(), HashAlgorithm.SHA1, localDigest).join();
+        if (!expectedHash.equals(actualHashes[0])) {
             downloadDependency(dependency);
+            return dependency;
+        }
+
+        // verified against the hash of the build, the sidecar is brought back for the next start
+        if (!Files.exists(dependency.getJarSha1File())) Files.writeString(dependency.getJarSha1File(), expectedHash);
+
+        if (actualHashes.length > 1) {
+            verificationIndex.record(dependency.getJarFile(), expectedHash, localDigest, actualHashes[1]);
+        } else {
+            verificationIndex.record(dependency.getJarFile(), expectedHash);
         }
 
         return dependency;
     }
 
+    /**
+     * The sidecar wins, it also holds the hash of a jar this machine relocated differently than the build did.
+     * Without it, the jar can still be verified against the hash the build computed.
+     */
+    @SneakyThrows
+    private String getExpectedJarSha1(Manifest.Dependency dependency) {
+        if (Files.exists(dependency.getJarSha1File())) return Files.readString(dependency.getJarSha1File());
+        return dependency.getRelocatedSha1();
+    }
+
+    /**
+     * Downloads the dependency from the best repository. If an attempt is too slow, the next repository
+     * is tried at the same time and whichever finishes first wins, the other one is cancelled.
+     */
     @SneakyThrows
     private void downloadDependency(Manifest.Dependency dependency) {
-        final List<Throwable> errors = new ArrayList<>(manifest.getRepositories().size());
+        if (resolveFromLocalRepositories(dependency)) return;
+
+        final List<String> repositories = repositoryHealth.rank(networkRepositories, dependency.getGroupId());
+        final List<Throwable> errors = new ArrayList<>(repositories.size());
+        final List<DownloadAttempt> running = new ArrayList<>(MAX_PARALLEL_ATTEMPTS);
+        int next = 0;
+
+        while (next < repositories.size() || !running.isEmpty()) {
+            if (next < repositories.size() && (running.isEmpty() || (running.size() < MAX_PARALLEL_ATTEMPTS && running.stream().allMatch(this::isSlow)))) {
+                running.add(startDownloadAttempt(dependency, repositories.get(next++), getFreeSlot(running)));
+            }
 
-        for (final String repository : manifest.getRepositories()) {
             try {
-                downloadDependency(dependency, repository);
+                CompletableFuture.anyOf(running.stream().map(DownloadAttempt::getResult).toArray(CompletableFuture[]::new))
+                    .get(HEDGE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException ignored) {
+                // finished attempts are inspected below
+            }
+
+            for (final Iterator<DownloadAttempt> iterator = running.iterator(); iterator.hasNext(); ) {
+                final DownloadAttempt attempt = iterator.next();
+                if (!attempt.getResult().isDone()) continue;
+                iterator.remove();
+
+                final DownloadedJar jar;
+                try {
+                    jar = attempt.getResult().join();
+                } catch (CompletionException e) {
+                    final Throwable t = e.getCause();
+                    if (t instanceof ResponseStatusException && ((ResponseStatusException) t).isNotFound()) {
+                        repositoryHealth.recordMiss(attempt.getRepository(), dependency.getGroupId(), attempt.getTransfer().getElapsedNanos());
+                    } else {
+                        repositoryHealth.recordError(attempt.getRepository());
+                    }
+
+                    errors.add(new RuntimeException("Failed to download " + dependency + " from repository " + attempt.getRepository(), t));
+                    continue;
+                }
+
+                running.forEach(DownloadAttempt::cancel);
+
+                // perform relocation and save the checksum of its output
+                installJar(dependency, jar.getFile(), jar.getHash(), true);
+                repositoryHealth.recordHit(attempt.getRepository(), dependency.getGroupId(), jar.getLatencyNanos());
                 return;
-            } catch (Throwable t) {
-                final Exception exception = new RuntimeException("Failed to download " + dependency + " from repository " + repository, t);
-                errors.add(exception);
             }
         }
 
@@ -181,42 +571,215 @@ private void downloadDependency(Manifest.Dependency dependency) {
         throw exception;
     }
 
+    private boolean resolveFromLocalRepositories(Manifest.Dependency dependency) {
+        for (final LocalRepository repository : localRepositories) {
+            final Path candidate = repository.find(dependency);
+            if (!Files.isRegularFile(candidate)) continue;
+
+            // local files can be stale or half-written by another build, they are verified like downloaded ones
+            final String hash = hashingService.submit(candidate, HashAlgorithm.SHA1).join()[0];
+            if (!hash.equals(dependency.getSha1())) {
+                if (logger != null) logger.warning("Loader: ignoring " + candidate + " with invalid sha1 for dependency " + dependency);
+                continue;
+            }
+
+            installJar(dependency, candidate, hash, false);
+            return true;
+        }
+
+        return false;
+    }
+
+    private DownloadAttempt startDownloadAttempt(Manifest.Dependency dependency, String repository, int slot) {
+        final Transfer transfer = new Transfer();
+        return new DownloadAttempt(
+            repository,
+            slot,
+            transfer,
+            CompletableFuture.supplyAsync(() -> fetchDependency(dependency, repository, slot, transfer), attemptExecutor)
+        );
+    }
+
+    /**
+     * Parallel attempts stage their downloads in different files, the first attempt always gets slot 0,
+     * so it continues what the first attempt of the previous run left behind.
+     */
+    private static int getFreeSlot(Collection<DownloadAttempt> running) {
+        int slot = 0;
+        while (true) {
+            final int candidate = slot;
+            if (running.stream().noneMatch(attempt -> attempt.getSlot() == candidate)) return slot;
+            slot++;
+        }
+    }
+
+    private boolean isSlow(DownloadAttempt attempt) {
+        // a slow attempt may just be throttled on purpose, a second one wouldn't help
+        return !downloadScheduler.limitsBandwidth()
+            && attempt.getTransfer().getElapsedNanos() > HEDGE_AFTER_NANOS
+            && attempt.getTransfer().getBytesPerSecond() < HEDGE_BELOW_BYTES_PER_SECOND;
+    }
+
     @SneakyThrows
-    private void downloadDependency(Manifest.Dependency dependency, String repository) {
+    private DownloadedJar fetchDependency(Manifest.Dependency dependency, String repository, int slot, Transfer transfer) {
         // check is repository has a valid jar
-        final String remoteHash = LoaderUtils.downloadString(httpClient, dependency.toJarSha1HttpUrl(repository)).trim().split(" ")[0];
+        final long startedAt = System.nanoTime();
+        final String remoteHash = downloader.downloadString(dependency.toJarSha1HttpUrl(repository)).trim().split(" ")[0];
+        final long latency = System.nanoTime() - startedAt;
         if (!remoteHash.equals(dependency.getSha1()))
             throw new IllegalStateException("Repository " + repository + " returned invalid sha1 '" + remoteHash + "' for dependency " + dependency);
 
-        // download a new jar and validate it
-        final Path temporaryFile = createTempFile(dependency.getGroupId(), dependency.getArtifactId());
+        // download a new jar, hashing it on the fly, an interrupted download is kept to be continued later
+        final Path stagingFile = stagingDirectory.resolve(dependency.getSha1() + "." + slot + ".jar");
         final String downloadUrl = dependency.toJarHttpUrl(repository);
-        LoaderUtils.downloadFile(downloadUrl, temporaryFile, httpClient);
-        if (!Objects.equals(LoaderUtils.sha1(temporaryFile), remoteHash))
-            throw new IllegalStateException("File " + temporaryFile.toAbsolutePath() + " downloaded from " + downloadUrl + " to resolve " + dependency + " has invalid sha1");
+        String downloadedHash = downloader.download(downloadUrl, stagingFile, transfer);
+        if (!Objects.equals(downloadedHash, remoteHash)) {
+            // the partial file it continued may have been damaged, give it one clean try
+            Downloader.discard(stagingFile);
+            downloadedHash = downloader.download(downloadUrl, stagingFile, transfer);
+        }
+        if (!Objects.equals(downloadedHash, remoteHash)) {
+            Downloader.discard(stagingFile);
+            throw new IllegalStateException("File " + stagingFile.toAbsolutePath() + " downloaded from " + downloadUrl + " to resolve " + dependency + " has invalid sha1");
+        }
+
+        return new DownloadedJar(stagingFile, downloadedHash, latency);
+    }
+
+    /**
+     * Relocates a verified jar into the libraries directory and records checksums of the output.
+     * Relocation runs in the relocate stage and the final move in the persist stage,
+     * so the calling fetch thread only waits while others keep the network busy.
+     *
+     * @param consumeInput whether the input is a temporary file that may be moved or deleted
+     */
+    @SneakyThrows
+    private void installJar(Manifest.Dependency dependency, Path input, String inputHash, boolean consumeInput) {
+        final Path output = dependency.getJarFile();
+
+        // the jar is assembled next to its final location and then moved in place, so nobody sees a half-written file
+        Files.createDirectories(output.getParent());
+        final Path partialOutput = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".part");
+        try {
+            final AssembledJar jar = !relocatesJars()
+                ? assembleJar(dependency, input, inputHash, consumeInput, partialOutput)
+                : relocateStage.call(() -> assembleJar(dependency, input, inputHash, consumeInput, partialOutput));
+
+            persistStage.call(() -> {
+                persistJar(dependency, jar);
+                return null;
+            });
+        } finally {
+            // already moved in place unless something failed
+            Files.deleteIfExists(partialOutput);
+        }
+    }
+
+    @SneakyThrows
+    private AssembledJar assembleJar(Manifest.Dependency dependency, Path input, String inputHash, boolean consumeInput, Path partialOutput) {
+        if (!relocatesJars()) {
+            // nothing changes, so the input hashes are the output hashes
+            if (consumeInput) {
+                Files.move(input, partialOutput, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                linkOrCopy(input, partialOutput);
+            }
+            return new AssembledJar(partialOutput, inputHash, localDigest == HashAlgorithm.CRC32C ? dependency.getCrc32c() : null);
+        }
+
+        final JarRelocator relocator = new JarRelocator(input, partialOutput, manifest.getRelocationRules())
+            .compressOutput(outputCompression)
+            .mappingCache(mappingCache)
+            .hashOutput(localDigest);
+        relocator.run();
+        if (consumeInput) Files.deleteIfExists(input);
+
+        // another deflate implementation compresses differently, the jar is still fine, just not the one the build saw
+        if (logger != null && dependency.getRelocatedSha1() != null && !dependency.getRelocatedSha1().equals(relocator.getOutputSha1()))
+            logger.warning("Loader: relocated " + dependency + " to sha1 " + relocator.getOutputSha1() + ", the build expected " + dependency.getRelocatedSha1() + ", using the local result");
+        return new AssembledJar(partialOutput, relocator.getOutputSha1(), relocator.getOutputDigest(localDigest));
+    }
+
+    @SneakyThrows
+    private void persistJar(Manifest.Dependency dependency, AssembledJar jar) {
+        final Path output = dependency.getJarFile();
+        LoaderUtils.moveAtomically(jar.getFile(), output);
+
+        Files.writeString(dependency.getJarSha1File(), jar.getHash());
+        if (localDigest != HashAlgorithm.SHA1 && jar.getLocalHash() != null) {
+            verificationIndex.record(output, jar.getHash(), localDigest, jar.getLocalHash());
+        } else {
+            verificationIndex.record(output, jar.getHash());
+        }
+    }
 
-        // perform relocation
-        relocateJar(temporaryFile, dependency.getJarFile());
-        Files.deleteIfExists(temporaryFile);
+    private boolean relocatesJars() {
+        return !manifest.getRelocationRules().isEmpty() && !manifest.isLazyRelocation();
+    }
 
-        // save new checksum
-        Files.writeString(dependency.getJarSha1File(), LoaderUtils.sha1(dependency.getJarFile()));
+    @SneakyThrows
+    private static void linkOrCopy(Path source, Path target) {
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+        } catch (Exception e) {
+            // different file systems, or no hard links there
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     private void removeUnusedJars(Set<Manifest.Dependency> resolvedDependencies) {
+        if (sharedStore != null) {
+            // jars live in the store, the own directory only keeps metadata
+            sharedStore.removeUnreferencedFiles();
+            LoaderUtils.removeFilesFromDirectory(directory, Set.of(metadataDirectory, sharedStore.getDirectory()));
+            return;
+        }
+
         LoaderUtils.removeFilesFromDirectory(
             directory,
-            resolvedDependencies.stream()
-                .flatMap(it -> Stream.of(it.getJarFile(), it.getJarSha1File()))
-                .collect(Collectors.toUnmodifiableSet())
+            Stream.concat(
+                resolvedDependencies.stream().flatMap(it -> Stream.of(it.getJarFile(), it.getJarSha1File())),
+                Stream.of(metadataDirectory)
+            ).collect(Collectors.toUnmodifiableSet())
         );
     }
 
-    @SneakyThrows
-    private Path createTempFile(String prefix, String suffix) {
-        if (tempDirectory == null)
-            return Files.createTempFile(prefix, suffix);
+    @Value
+    private static class DownloadedJar {
+
+        Path file;
+        String hash;
+        long latencyNanos;
+    }
 
-        return Files.createTempFile(tempDirectory, prefix, suffix);
+    @Value
+    private static class AssembledJar {
+
+        Path file;
+        String hash;
+        String localHash;
+    }
+
+    @Value
+    private static class DownloadAttempt {
+
+        String repository;
+        int slot;
+        Transfer transfer;
+        CompletableFuture<DownloadedJar> result;
+
+        void cancel() {
+            transfer.cancel(new CancellationException("Another repository was faster"));
+
+            // it may still finish in the meantime, nobody needs the file then
+            result.thenAccept(jar -> {
+                try {
+                    Files.deleteIfExists(jar.getFile());
+                } catch (IOException ignored) {
+                    // the staging directory is cleaned up after a successful run anyway
+                }
+            });
+        }
     }
 }
@@ -1,8 +1,11 @@
 package io.github.blackbaroness.loader.runtime;
 
+import io.github.blackbaroness.loader.runtime.download.DownloadScheduler;
 import lombok.RequiredArgsConstructor;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 @RequiredArgsConstructor
@@ -11,12 +14,23 @@ public class LoaderBuilder {
     private final Path directory;
     private final String manifestJson;
 
-    private Path tempDirectory;
     private Logger logger;
     private boolean removeUnusedJars = true;
+    private boolean paranoidVerification = false;
+    private HashAlgorithm localDigest = HashAlgorithm.SHA1;
+    private Path sharedStoreDirectory;
+    private final List<LocalRepository> localRepositories = new ArrayList<>();
+    private long maxBytesPerSecond = 0;
+    private int maxConnectionsPerHost = 0;
+    private boolean portableIndex = false;
+    private OutputCompression outputCompression = OutputCompression.MAX;
 
+    /**
+     * Does nothing. Partial downloads and relocations are staged inside the libraries directory,
+     * so they can be resumed and moved into place atomically, and the given directory is left untouched.
+     */
+    @Deprecated
     public LoaderBuilder setTempDirectory(Path tempDirectory) {
-        this.tempDirectory = tempDirectory;
         return this;
     }
 
@@ -30,13 +44,96 @@ public LoaderBuilder setRemoveUnusedJars(boolean removeUnusedJars) {
         return this;
     }
 
+    /**
+     * Hash every library on every start instead of trusting files that did not change since they were verified.
+     */
+    public LoaderBuilder setParanoidVerification(boolean paranoidVerification) {
+        this.paranoidVerification = paranoidVerification;
+        return this;
+    }
+
+    /**
+     * Sets the digest used to re-verify libraries whose file attributes changed since they were verified.
+     * SHA-1 stays the trust anchor for downloads, a cheaper checksum like {@link HashAlgorithm#CRC32C} only
+     * guards against local corruption.
+     */
+    public LoaderBuilder setLocalDigest(HashAlgorithm localDigest) {
+        this.localDigest = localDigest;
+        return this;
+    }
+
+    /**
+     * Keeps dependency jars in a directory shared with other loaders (e.g. other plugins on the same server)
+     * instead of the own libraries directory. Loaders with the same relocation rules reuse each other's jars,
+     * and a jar is only removed once no loader references it.
+     */
+    public LoaderBuilder setSharedStoreDirectory(Path sharedStoreDirectory) {
+        this.sharedStoreDirectory = sharedStoreDirectory;
+        return this;
+    }
+
+    /**
+     * Adds a local repository to check before the network, e.g. {@link LocalRepository#mavenLocal()}.
+     * Local repositories are checked in the order they were added, {@code file:} repositories
+     * from the manifest come after them.
+     */
+    public LoaderBuilder addLocalRepository(LocalRepository localRepository) {
+        this.localRepositories.add(localRepository);
+        return this;
+    }
+
+    /**
+     * Caps the bandwidth of all downloads together, so a restart doesn't saturate the uplink of a live host.
+     * Zero (the default) means no limit.
+     */
+    public LoaderBuilder setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Caps the number of simultaneous connections to a single host, repositories on one host share the limit.
+     * Zero (the default) means no limit.
+     */
+    public LoaderBuilder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Leaves file keys out of the verification index, so a libraries directory prepared on one machine
+     * (e.g. while building a container image) is trusted on another without being hashed again.
+     * Sizes and modification times are still checked.
+     */
+    public LoaderBuilder setPortableIndex(boolean portableIndex) {
+        this.portableIndex = portableIndex;
+        return this;
+    }
+
+    /**
+     * Sets how relocated jars are compressed, {@link OutputCompression#MAX} by default.
+     * Less compression trades disk space for faster relocation and class loading.
+     */
+    public LoaderBuilder setOutputCompression(OutputCompression outputCompression) {
+        this.outputCompression = outputCompression;
+        return this;
+    }
+
     public Loader build() {
         return new Loader(
             directory,
-            tempDirectory,
             manifestJson,
             logger,
-            removeUnusedJars
+            removeUnusedJars,
+            paranoidVerification,
+            localDigest,
+            sharedStoreDirectory,
+            localRepositories,
+            maxBytesPerSecond == 0 && maxConnectionsPerHost == 0
+                ? DownloadScheduler.UNLIMITED
+                : new DownloadScheduler(maxBytesPerSecond, maxConnectionsPerHost),
+            portableIndex,
+            outputCompression
         );
     }
 }
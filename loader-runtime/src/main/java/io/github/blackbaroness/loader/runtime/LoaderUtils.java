@@ -11,34 +11,27 @@
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 
 @UtilityClass
 public class LoaderUtils {
 
+    /**
+     * How long to wait for the response headers, the body is guarded separately.
+     */
+    public final Duration REQUEST_TIMEOUT = Duration.ofSeconds(20);
+
     private final char[] hexArray = "0123456789abcdef".toCharArray();
 
-    @SneakyThrows
     public String sha1(Path path) {
-        final MessageDigest digest = createSha1Digest();
-        try (SeekableByteChannel seekableByteChannel = Files.newByteChannel(path)) {
-            final ByteBuffer buffer = ByteBuffer.allocate(1024 * 8);
-            while (seekableByteChannel.read(buffer) > 0) {
-                buffer.flip();
-                digest.update(buffer);
-                buffer.clear();
-            }
-        }
-
-        return bytesToHex(digest.digest());
+        return HashingService.hash(path, HashAlgorithm.SHA1);
     }
 
     @SneakyThrows
@@ -47,14 +40,14 @@ public String sha1(String str) {
     }
 
     @SneakyThrows
-    public String sha1(Map<String, String> map) {
+    public String sha1(Map<String, ?> map) {
         return sha1(JsonWriter.string().object(map).done());
     }
 
     @SneakyThrows
     public String downloadString(HttpClient httpClient, String url) {
         final HttpResponse<String> response = httpClient.send(
-            HttpRequest.newBuilder().uri(URI.create(url)).GET().build(),
+            HttpRequest.newBuilder().uri(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build(),
             HttpResponse.BodyHandlers.ofString()
         );
 
@@ -67,13 +60,36 @@ public void downloadFile(String url, Path destination, HttpClient httpClient) {
         Files.createDirectories(destination.getParent());
 
         final HttpResponse<Path> response = httpClient.send(
-            HttpRequest.newBuilder().uri(URI.create(url)).GET().build(),
+            HttpRequest.newBuilder().uri(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build(),
             HttpResponse.BodyHandlers.ofFile(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
         );
 
         validateResponse(response);
     }
 
+    /**
+     * Writes the file through a temporary sibling, so readers see either the old or the new content.
+     */
+    @SneakyThrows
+    public void writeStringAtomically(Path file, String content) {
+        Files.createDirectories(file.getParent());
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temporaryFile, content);
+        moveAtomically(temporaryFile, file);
+    }
+
+    /**
+     * Moves a file over the target in one step where the file system allows it.
+     */
+    @SneakyThrows
+    public void moveAtomically(Path source, Path target) {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     @SneakyThrows
     public URL toURL(Path path) {
         return path.toUri().toURL();
@@ -90,7 +106,7 @@ public String normalizeUrl(String url) {
     public void validateResponse(HttpResponse<?> response) {
         int code = response.statusCode();
         if (code < 200 || code >= 300) {
-            throw new RuntimeException("Request failed: " + response.uri().toString() + " (" + code + ")");
+            throw new ResponseStatusException("Request failed: " + response.uri().toString() + " (" + code + ")", code);
         }
     }
 
@@ -114,6 +130,15 @@ public void removeFilesFromDirectory(Path root, Set<Path> whitelist) {
 
         Files.walkFileTree(root, new SimpleFileVisitor<>() {
 
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                // whitelisted directories are kept with all of their content
+                if (normalizedWhitelist.contains(dir.normalize())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 if (!normalizedWhitelist.contains(file.normalize())) {
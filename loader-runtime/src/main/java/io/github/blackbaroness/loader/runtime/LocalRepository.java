@@ -0,0 +1,58 @@
+package io.github.blackbaroness.loader.runtime;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A repository on the local file system, checked before any network repository.
+ * Files found here are verified against the manifest checksum like downloaded ones.
+ */
+@FunctionalInterface
+public interface LocalRepository {
+
+    /**
+     * @return the path where the jar of the dependency would be, it doesn't have to exist
+     */
+    Path find(Manifest.Dependency dependency);
+
+    /**
+     * A directory with the standard Maven layout, such as a {@code file:} mirror.
+     */
+    static LocalRepository mavenLayout(Path root) {
+        return dependency -> root.resolve(dependency.toRepositoryPath());
+    }
+
+    /**
+     * The local Maven repository, {@code ~/.m2/repository} unless overridden with {@code maven.repo.local}.
+     */
+    static LocalRepository mavenLocal() {
+        final String override = System.getProperty("maven.repo.local");
+        if (override != null) return mavenLayout(Paths.get(override));
+
+        return mavenLayout(Paths.get(System.getProperty("user.home"), ".m2", "repository"));
+    }
+
+    /**
+     * A Gradle module cache ({@code caches/modules-2/files-2.1}), where files are stored under their own sha1.
+     */
+    static LocalRepository gradleCache(Path root) {
+        return dependency -> root
+            .resolve(dependency.getGroupId())
+            .resolve(dependency.getArtifactId())
+            .resolve(dependency.getVersion())
+            .resolve(dependency.getSha1())
+            .resolve(dependency.toJarFileName());
+    }
+
+    /**
+     * The module cache of the current user, respecting {@code GRADLE_USER_HOME}.
+     */
+    static LocalRepository gradleUserCache() {
+        final String gradleUserHome = System.getenv("GRADLE_USER_HOME");
+        final Path home = gradleUserHome != null
+            ? Paths.get(gradleUserHome)
+            : Paths.get(System.getProperty("user.home"), ".gradle");
+
+        return gradleCache(home.resolve("caches").resolve("modules-2").resolve("files-2.1"));
+    }
+}
@@ -1,18 +1,57 @@
 package io.github.blackbaroness.loader.runtime;
 
+import io.github.blackbaroness.loader.runtime.relocator.Relocation;
+import lombok.AllArgsConstructor;
 import lombok.Value;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 @Value
+@AllArgsConstructor
 public class Manifest {
 
     Set<String> repositories;
     Set<Dependency> dependencies;
+
+    /**
+     * Relocated packages by pattern, without the selectors of the rules.
+     */
     Map<String, String> relocations;
 
+    /**
+     * The relocations as they are applied, including their selectors.
+     */
+    List<Relocation> relocationRules;
+
+    /**
+     * Identifies the relocations and the output compression, jars relocated with them are named after it.
+     */
+    String relocationsHash;
+
+    /**
+     * Whether the jar containing this manifest was already relocated during the build.
+     */
+    boolean selfRelocated;
+
+    /**
+     * Whether jars are kept as they are and their classes are relocated by the class loader when they are loaded.
+     */
+    boolean lazyRelocation;
+
+    public Manifest(Set<String> repositories, Set<Dependency> dependencies, Map<String, String> relocations) {
+        this(repositories, dependencies, relocations, toRelocationRules(relocations), LoaderUtils.sha1(relocations), false, false);
+    }
+
+    private static List<Relocation> toRelocationRules(Map<String, String> relocations) {
+        final List<Relocation> rules = new ArrayList<>(relocations.size());
+        relocations.forEach((pattern, target) -> rules.add(new Relocation(pattern, target)));
+        return rules;
+    }
+
     @Value
     public static class Dependency {
 
@@ -21,16 +60,32 @@ public static class Dependency {
         String version;
         String classifier;
         String sha1;
+        String crc32c;
+
+        /**
+         * The SHA-1 the jar has after relocation, as computed at build time, or {@code null} if it is not known.
+         */
+        String relocatedSha1;
 
         String versionWithClassifier;
         Path jarFile;
         Path jarSha1File;
 
         public Dependency(String groupId, String artifactId, String version, String classifier, String sha1, Path directory, String relocationsHash) {
+            this(groupId, artifactId, version, classifier, sha1, null, null, directory, relocationsHash);
+        }
+
+        public Dependency(String groupId, String artifactId, String version, String classifier, String sha1, String crc32c, Path directory, String relocationsHash) {
+            this(groupId, artifactId, version, classifier, sha1, crc32c, null, directory, relocationsHash);
+        }
+
+        public Dependency(String groupId, String artifactId, String version, String classifier, String sha1, String crc32c, String relocatedSha1, Path directory, String relocationsHash) {
             this.groupId = groupId;
             this.artifactId = artifactId;
             this.version = version;
             this.sha1 = sha1;
+            this.crc32c = crc32c;
+            this.relocatedSha1 = relocatedSha1;
             this.classifier = classifier;
 
             this.versionWithClassifier = version + (classifier == null ? "" : ("-" + classifier));
@@ -44,8 +99,16 @@ public Dependency(String groupId, String artifactId, String version, String clas
             this.jarSha1File = jarFile.resolveSibling(jarFile.getFileName() + ".sha1");
         }
 
+        public String toJarFileName() {
+            return artifactId + "-" + versionWithClassifier + ".jar";
+        }
+
+        public String toRepositoryPath() {
+            return groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + toJarFileName();
+        }
+
         public String toJarHttpUrl(String baseUrl) {
-            return LoaderUtils.normalizeUrl(baseUrl) + '/' + groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + versionWithClassifier + ".jar";
+            return LoaderUtils.normalizeUrl(baseUrl) + '/' + toRepositoryPath();
         }
 
         public String toJarSha1HttpUrl(String baseUrl) {
@@ -0,0 +1,32 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.zip.Deflater;
+
+/**
+ * How relocated jars are stored. Less compression means bigger files, but faster relocation
+ * and faster class loading, because classes don't have to be inflated.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum OutputCompression {
+
+    /**
+     * No compression at all, even entries that were compressed in the original jar are stored.
+     */
+    STORED(Deflater.NO_COMPRESSION),
+
+    /**
+     * The fastest deflate level for relocated entries, others are copied as they are.
+     */
+    FAST(Deflater.BEST_SPEED),
+
+    /**
+     * The best deflate level for relocated entries, others are copied as they are.
+     */
+    MAX(Deflater.BEST_COMPRESSION);
+
+    private final int level;
+}
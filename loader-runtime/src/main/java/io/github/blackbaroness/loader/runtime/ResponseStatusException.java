@@ -0,0 +1,25 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.Getter;
+
+@Getter
+public class ResponseStatusException extends RuntimeException {
+
+    private final int statusCode;
+
+    public ResponseStatusException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+
+    /**
+     * @return whether the same request may succeed if it is repeated later
+     */
+    public boolean isTransient() {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,286 @@
+package io.github.blackbaroness.loader.runtime;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonWriter;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A libraries directory shared by several loaders, usually several plugins on one server.
+ * <p>
+ * Entries are keyed by the artifact sha1 and the relocations hash, so loaders with the same relocation rules
+ * reuse each other's jars. Every loader (owner) keeps a list of the entries it references, and an entry is only
+ * removed when no owner references it anymore. Owners that did not refresh their references for a long time are
+ * considered gone. All coordination is done with file locks, because plugins do not share classes with each other.
+ */
+public class SharedStore {
+
+    private static final long STALE_OWNER_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long LOCK_RETRY_MILLIS = 50;
+    private static final long ABANDONED_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @Getter
+    private final Path directory;
+    private final Path metadataDirectory;
+    private final Path referencesDirectory;
+    private final String ownerId;
+    private final Path ownerDirectory;
+    private final Logger logger;
+
+    public SharedStore(Path directory, Path ownerDirectory, Logger logger) {
+        this.directory = directory;
+        this.metadataDirectory = directory.resolve(".loader");
+        this.referencesDirectory = metadataDirectory.resolve("references");
+        this.ownerDirectory = ownerDirectory.toAbsolutePath().normalize();
+        this.ownerId = LoaderUtils.sha1(this.ownerDirectory.toString());
+        this.logger = logger;
+    }
+
+    /**
+     * Runs the action while holding an exclusive lock on the entry, so only one loader creates it.
+     */
+    public <T> T withEntryLock(Path entry, Supplier<T> action) {
+        return withLock(getEntryLockFile(entry), true, action);
+    }
+
+    /**
+     * Replaces the list of entries referenced by this owner.
+     */
+    @SneakyThrows
+    public void register(Collection<Path> entries) {
+        final JsonArray files = new JsonArray();
+        for (final Path entry : entries) {
+            files.add(toKey(entry));
+        }
+
+        final JsonObject root = new JsonObject();
+        root.put("owner", ownerDirectory.toString());
+        root.put("files", files);
+
+        withLock(metadataDirectory.resolve("store.lock"), false, () -> {
+            LoaderUtils.writeStringAtomically(referencesDirectory.resolve(ownerId + ".json"), JsonWriter.string(root));
+            return null;
+        });
+    }
+
+    /**
+     * Removes every file that is not referenced by any live owner. Entries another loader is creating right now
+     * are locked by it and kept, partial files are only removed once they are clearly abandoned.
+     */
+    public void removeUnreferencedFiles() {
+        withLock(metadataDirectory.resolve("store.lock"), false, () -> {
+            removeFilesExcept(readReferences());
+            return null;
+        });
+    }
+
+    @SneakyThrows
+    private void removeFilesExcept(Set<Path> references) {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                return dir.equals(metadataDirectory) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (references.contains(file)) return FileVisitResult.CONTINUE;
+
+                final String name = file.getFileName().toString();
+                if (name.endsWith(".part")) {
+                    if (isAbandoned(attributes)) Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                final Path entry = name.endsWith(".sha1") ? file.resolveSibling(name.substring(0, name.length() - ".sha1".length())) : file;
+                tryWithLock(getEntryLockFile(entry), () -> delete(file));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                // a loader may be about to create an entry in a fresh directory, so only old ones are removed
+                if (!dir.equals(directory) && isAbandoned(Files.readAttributes(dir, BasicFileAttributes.class))) {
+                    try {
+                        Files.delete(dir);
+                    } catch (DirectoryNotEmptyException ignored) {
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isAbandoned(BasicFileAttributes attributes) {
+        return System.currentTimeMillis() - attributes.lastModifiedTime().toMillis() > ABANDONED_MILLIS;
+    }
+
+    @SneakyThrows
+    private Set<Path> readReferences() {
+        final Set<Path> result = new HashSet<>();
+        if (!Files.isDirectory(referencesDirectory)) return result;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(referencesDirectory, "*.json")) {
+            for (final Path file : stream) {
+                if (System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > STALE_OWNER_MILLIS) {
+                    if (logger != null) logger.info("Loader: forgetting stale shared store owner " + file.getFileName());
+                    Files.delete(file);
+                    continue;
+                }
+
+                try {
+                    final JsonArray files = JsonParser.object().from(Files.readString(file)).getArray("files");
+                    for (int i = 0; i < files.size(); i++) {
+                        final Path entry = directory.resolve(files.getString(i));
+                        result.add(entry);
+                        result.add(entry.resolveSibling(entry.getFileName() + ".sha1"));
+                    }
+                } catch (Exception e) {
+                    // we can't tell what this owner needs, so keep everything
+                    throw new IllegalStateException("Unreadable shared store references " + file + ", refusing to clean up", e);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private Path getEntryLockFile(Path entry) {
+        return metadataDirectory.resolve("locks").resolve(LoaderUtils.sha1(toKey(entry)) + ".lock");
+    }
+
+    private String toKey(Path entry) {
+        return directory.relativize(entry).toString().replace('\\', '/');
+    }
+
+    /**
+     * Runs the action while holding the lock. A lock file that is removed afterwards is marked as removed before
+     * its lock is released, so whoever was waiting for it takes the lock on a fresh file instead.
+     */
+    @SneakyThrows
+    private <T> T withLock(Path lockFile, boolean removeAfterwards, Supplier<T> action) {
+        Files.createDirectories(lockFile.getParent());
+        while (true) {
+            final FileChannel channel = openLockFile(lockFile);
+            if (channel == null) {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+                continue;
+            }
+
+            try (channel) {
+                FileLock lock = null;
+                while (lock == null) {
+                    lock = tryLock(channel);
+                    if (lock == null) Thread.sleep(LOCK_RETRY_MILLIS);
+                }
+
+                try {
+                    if (isRemoved(channel)) continue;
+                    try {
+                        return action.get();
+                    } finally {
+                        if (removeAfterwards) remove(lockFile, channel);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the action only if nobody holds the lock, otherwise does nothing. The lock file is removed afterwards.
+     */
+    @SneakyThrows
+    private void tryWithLock(Path lockFile, Runnable action) {
+        Files.createDirectories(lockFile.getParent());
+        while (true) {
+            final FileChannel channel = openLockFile(lockFile);
+            if (channel == null) return;
+
+            try (channel) {
+                final FileLock lock = tryLock(channel);
+                if (lock == null) return;
+
+                try {
+                    if (isRemoved(channel)) continue;
+                    try {
+                        action.run();
+                        return;
+                    } finally {
+                        remove(lockFile, channel);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the channel, or {@code null} if the file can't be opened right now because it is being removed on Windows
+     */
+    @SneakyThrows
+    private static FileChannel openLockFile(Path lockFile) {
+        try {
+            return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (AccessDeniedException e) {
+            return null;
+        }
+    }
+
+    @SneakyThrows
+    private static boolean isRemoved(FileChannel channel) {
+        return channel.size() > 0;
+    }
+
+    @SneakyThrows
+    private static void remove(Path lockFile, FileChannel channel) {
+        try {
+            Files.delete(lockFile);
+        } catch (IOException e) {
+            // still open by someone who can't share it, the next holder will try again
+            return;
+        }
+        channel.write(ByteBuffer.wrap(new byte[]{1}), 0);
+    }
+
+    @SneakyThrows
+    private static FileLock tryLock(FileChannel channel) {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // another loader in this JVM holds it
+            return null;
+        }
+    }
+
+    @SneakyThrows
+    private static void delete(Path file) {
+        Files.deleteIfExists(file);
+    }
+}
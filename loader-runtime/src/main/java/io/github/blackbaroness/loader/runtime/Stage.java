@@ -0,0 +1,57 @@
+package io.github.blackbaroness.loader.runtime;
+
+import lombok.SneakyThrows;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * One step of dependency resolution with its own pool of threads.
+ * <p>
+ * At most {@code capacity} tasks may be queued or running at once. Submitting more blocks the submitting thread,
+ * so a fast step waits for a slow one instead of piling up work (and staged files) in front of it.
+ */
+final class Stage implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final Semaphore capacity;
+
+    Stage(String name, int threads, int capacity) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "loader-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.capacity = new Semaphore(capacity);
+    }
+
+    @SneakyThrows
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        capacity.acquire();
+        try {
+            return CompletableFuture.supplyAsync(task, executor).whenComplete((result, t) -> capacity.release());
+        } catch (RejectedExecutionException e) {
+            capacity.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the task in this stage and waits for it, rethrowing whatever it threw.
+     */
+    @SneakyThrows
+    <T> T call(Supplier<T> task) {
+        try {
+            return submit(task).join();
+        } catch (CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.blackbaroness.loader.runtime;
+
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonWriter;
+import lombok.SneakyThrows;
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers which files were verified and what they looked like at that moment (size, modification time, file key),
+ * so an unchanged file can be trusted after a single {@code stat} instead of being hashed again.
+ * <p>
+ * The index also stores a fingerprint of the manifest it was built for. If the fingerprint matches and no file changed,
+ * the whole libraries directory is known to be good.
+ * <p>
+ * A portable index leaves the file key (inode) out, so it stays valid when the directory is copied
+ * to another file system that keeps modification times, such as a container image layer.
+ */
+public class VerificationIndex {
+
+    private final Path file;
+    private final Path root;
+    private final Logger logger;
+    private final boolean portable;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile String fingerprint;
+
+    public VerificationIndex(Path file, Path root, Logger logger, boolean portable) {
+        this.file = file;
+        this.root = root;
+        this.logger = logger;
+        this.portable = portable;
+        load();
+    }
+
+    public boolean matchesFingerprint(String fingerprint) {
+        return Objects.equals(this.fingerprint, fingerprint);
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the digest recorded for the file, if the file was not touched since it was recorded.
+     *
+     * @return the recorded digest, or {@code null} if the file changed or was never recorded
+     */
+    public String getVerifiedDigest(Path path) {
+        final Entry entry = entries.get(toKey(path));
+        if (entry == null) return null;
+
+        final Entry actual = stat(path, entry.digest, entry.localAlgorithm, entry.localDigest, entry.fileKey != null);
+        return entry.equals(actual) ? entry.digest : null;
+    }
+
+    /**
+     * Returns the local digest recorded alongside the given digest, even if the file was touched since it was recorded.
+     *
+     * @return the recorded digest of the given algorithm, or {@code null} if there is none
+     */
+    public String getLocalDigest(Path path, String digest, HashAlgorithm algorithm) {
+        final Entry entry = entries.get(toKey(path));
+        if (entry == null || !entry.digest.equals(digest) || !algorithm.getId().equals(entry.localAlgorithm)) return null;
+        return entry.localDigest;
+    }
+
+    public void record(Path path, String digest) {
+        record(path, digest, null, null);
+    }
+
+    /**
+     * Records a verified file along with an optional cheaper digest to re-verify it with once its attributes change.
+     */
+    public void record(Path path, String digest, HashAlgorithm localAlgorithm, String localDigest) {
+        final Entry entry = localDigest == null
+            ? stat(path, digest, null, null, !portable)
+            : stat(path, digest, localAlgorithm.getId(), localDigest, !portable);
+        if (entry != null) {
+            entries.put(toKey(path), entry);
+        } else {
+            entries.remove(toKey(path));
+        }
+    }
+
+    public void forget(Path path) {
+        entries.remove(toKey(path));
+    }
+
+    /**
+     * Forgets every file that is not in the given collection.
+     */
+    public void retain(Collection<Path> paths) {
+        final Set<String> keys = paths.stream().map(this::toKey).collect(Collectors.toSet());
+        entries.keySet().retainAll(keys);
+    }
+
+    @SneakyThrows
+    public synchronized void save() {
+        final JsonObject entriesObject = new JsonObject();
+        entries.forEach((key, entry) -> entriesObject.put(key, entry.toJson()));
+
+        final JsonObject root = new JsonObject();
+        root.put("fingerprint", fingerprint);
+        root.put("entries", entriesObject);
+
+        LoaderUtils.writeStringAtomically(file, JsonWriter.string(root));
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+
+        try {
+            final JsonObject root = JsonParser.object().from(Files.readString(file));
+            fingerprint = root.getString("fingerprint");
+            root.getObject("entries").forEach((key, value) -> entries.put(key, Entry.fromJson((JsonObject) value)));
+        } catch (Exception e) {
+            // the index is only a shortcut, everything will be verified again
+            fingerprint = null;
+            entries.clear();
+            if (logger != null) logger.warning("Loader: ignoring unreadable verification index " + file + ": " + e);
+        }
+    }
+
+    private String toKey(Path path) {
+        final Path absoluteRoot = root.toAbsolutePath().normalize();
+        final Path absolutePath = path.toAbsolutePath().normalize();
+
+        // files outside the root, like the jar of the plugin itself, may even be on another drive
+        final Path key = Objects.equals(absoluteRoot.getRoot(), absolutePath.getRoot()) ? absoluteRoot.relativize(absolutePath) : absolutePath;
+        return key.toString().replace('\\', '/');
+    }
+
+    private static Entry stat(Path path, String digest, String localAlgorithm, String localDigest, boolean withFileKey) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            final Object fileKey = attributes.fileKey();
+            return new Entry(
+                attributes.size(),
+                attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS),
+                fileKey == null || !withFileKey ? null : fileKey.toString(),
+                digest,
+                localAlgorithm,
+                localDigest
+            );
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Value
+    private static class Entry {
+
+        long size;
+        long modifiedMicros;
+        String fileKey;
+        String digest;
+        String localAlgorithm;
+        String localDigest;
+
+        JsonObject toJson() {
+            final JsonObject object = new JsonObject();
+            object.put("size", size);
+            object.put("mtime", modifiedMicros);
+            object.put("fileKey", fileKey);
+            object.put("digest", digest);
+            object.put("localAlgorithm", localAlgorithm);
+            object.put("localDigest", localDigest);
+            return object;
+        }
+
+        static Entry fromJson(JsonObject object) {
+            return new Entry(
+                object.getLong("size"),
+                object.getLong("mtime"),
+                object.getString("fileKey"),
+                object.getString("digest"),
+                object.getString("localAlgorithm"),
+                object.getString("localDigest")
+            );
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.blackbaroness.loader.runtime;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarFile;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * Prepares a libraries directory ahead of time, e.g. while building a container image:
+ * <pre>
+ * java -cp plugin.jar io.github.blackbaroness.loader.runtime.Warmup plugin.jar libraries [shared-store]
+ * </pre>
+ * Dependencies are downloaded, verified and relocated exactly like on a normal start, and a portable
+ * verification index is written, so the first real start needs neither network nor relocation.
+ * Given a plugin jar, the jar itself is relocated as well, unless the build already did or classes are
+ * relocated lazily, the same way the bootstrap decides it.
+ * The first argument is either a jar containing {@code loader-manifest.json} or the manifest itself.
+ */
+public final class Warmup {
+
+    private Warmup() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: " + Warmup.class.getName() + " <plugin jar | loader-manifest.json> <libraries directory> [shared store directory]");
+            System.exit(2);
+            return;
+        }
+
+        final Path source = Paths.get(args[0]);
+        final Logger logger = Logger.getLogger("Loader");
+
+        final Loader loader = new LoaderBuilder(Paths.get(args[1]), readManifestJson(source))
+            .setLogger(logger)
+            .setSharedStoreDirectory(args.length == 3 ? Paths.get(args[2]) : null)
+            .setParanoidVerification(true)
+            .setPortableIndex(true)
+            .build();
+
+        loader.prepare();
+        final Manifest manifest = loader.getManifest();
+        if (isJar(source) && !manifest.isSelfRelocated() && !manifest.isLazyRelocation()) loader.relocateOwnJar(source);
+        logger.info("Loader: prepared " + loader.getResolvedDependencies().size() + " dependencies in " + Paths.get(args[1]).toAbsolutePath());
+    }
+
+    private static boolean isJar(Path source) {
+        return source.getFileName().toString().endsWith(".jar");
+    }
+
+    private static String readManifestJson(Path source) throws Exception {
+        if (!isJar(source))
+            return Files.readString(source);
+
+        final String fileName = "loader-manifest.json";
+        try (JarFile jarFile = new JarFile(source.toFile())) {
+            final ZipEntry entry = jarFile.getEntry(fileName);
+            if (entry == null)
+                throw new NoSuchFileException(fileName + " not found in " + source.toAbsolutePath());
+
+            try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
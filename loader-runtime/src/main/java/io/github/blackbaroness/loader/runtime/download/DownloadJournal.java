@@ -0,0 +1,140 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonWriter;
+import io.github.blackbaroness.loader.runtime.LoaderUtils;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remembers how far every segment of a partial download got, so it can be resumed after a restart.
+ * <p>
+ * The journal is only written after the file contents were flushed, so it never claims bytes that are not on disk.
+ * It may lag behind the file, those bytes are simply downloaded again.
+ */
+final class DownloadJournal {
+
+    private final Path file;
+
+    @Getter
+    private final long totalSize;
+    @Getter
+    private final List<Segment> segments;
+
+    private String lastSaved;
+
+    DownloadJournal(Path file, long totalSize, List<Segment> segments) {
+        this.file = file;
+        this.totalSize = totalSize;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return the journal, or {@code null} if there is none or it can't be read
+     */
+    static DownloadJournal read(Path file) {
+        if (!Files.exists(file)) return null;
+
+        try {
+            final JsonObject root = JsonParser.object().from(Files.readString(file));
+            final JsonArray segmentsArray = root.getArray("segments");
+            final List<Segment> segments = new ArrayList<>(segmentsArray.size());
+            for (int i = 0; i < segmentsArray.size(); i++) {
+                final JsonObject segmentObject = segmentsArray.getObject(i);
+                final Segment segment = new Segment(segmentObject.getLong("start"), segmentObject.getLong("end"));
+                segment.setPosition(segmentObject.getLong("position"));
+                segments.add(segment);
+            }
+
+            return new DownloadJournal(file, root.getLong("total"), segments);
+        } catch (Exception e) {
+            // a broken journal only costs a fresh download
+            return null;
+        }
+    }
+
+    /**
+     * Writes the current segment positions, unless nothing changed since the last call.
+     */
+    @SneakyThrows
+    void save() {
+        final JsonArray segmentsArray = new JsonArray();
+        for (final Segment segment : segments) {
+            final JsonObject segmentObject = new JsonObject();
+            segmentObject.put("start", segment.getStart());
+            segmentObject.put("end", segment.getEnd());
+            segmentObject.put("position", segment.getPosition());
+            segmentsArray.add(segmentObject);
+        }
+
+        final JsonObject root = new JsonObject();
+        root.put("total", totalSize);
+        root.put("segments", segmentsArray);
+
+        final String json = JsonWriter.string(root);
+        if (json.equals(lastSaved)) return;
+
+        LoaderUtils.writeStringAtomically(file, json);
+        lastSaved = json;
+    }
+
+    @SneakyThrows
+    void delete() {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * A byte range of the file, {@code end} is inclusive. {@code position} is the next byte to write.
+     */
+    static final class Segment {
+
+        @Getter
+        private final long start;
+        @Getter
+        private volatile long end;
+
+        private volatile long position;
+        private volatile FileSegmentSubscriber subscriber;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        long getPosition() {
+            final FileSegmentSubscriber subscriber = this.subscriber;
+            return subscriber == null ? position : subscriber.getPosition();
+        }
+
+        void setPosition(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Shrinks the segment if the file turned out to be smaller.
+         */
+        void clampTo(long totalSize) {
+            end = Math.min(end, totalSize - 1);
+        }
+
+        boolean isComplete() {
+            return getPosition() > end;
+        }
+
+        /**
+         * From now on, the position is taken from the subscriber writing this segment.
+         */
+        void attach(FileSegmentSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+    }
+}
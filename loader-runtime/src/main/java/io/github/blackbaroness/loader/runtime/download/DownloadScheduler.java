@@ -0,0 +1,80 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import lombok.SneakyThrows;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps downloads from starving everything else on the machine.
+ * <p>
+ * The bandwidth of all downloads together is capped with a token bucket that holds up to one second of traffic.
+ * Streams that get ahead of the budget are paused through backpressure instead of blocked threads,
+ * so every stream gets a share proportional to what it actually reads. Connections are limited per host
+ * with fair semaphores, so waiting requests are served in arrival order. A zero limit means no limit,
+ * and an unlimited scheduler adds no work at all.
+ */
+public class DownloadScheduler {
+
+    public static final DownloadScheduler UNLIMITED = new DownloadScheduler(0, 0);
+
+    private final long maxBytesPerSecond;
+    private final int maxConnectionsPerHost;
+    private final Map<String, Semaphore> connections = new ConcurrentHashMap<>();
+
+    private double availableBytes;
+    private long refilledAt;
+
+    public DownloadScheduler(long maxBytesPerSecond, int maxConnectionsPerHost) {
+        if (maxBytesPerSecond < 0) throw new IllegalArgumentException("maxBytesPerSecond must not be negative");
+        if (maxConnectionsPerHost < 0) throw new IllegalArgumentException("maxConnectionsPerHost must not be negative");
+
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.availableBytes = maxBytesPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    public boolean limitsBandwidth() {
+        return maxBytesPerSecond > 0;
+    }
+
+    /**
+     * Blocks until a connection to the host of the url may be opened.
+     * Every call must be paired with {@link #releaseConnection(String)}.
+     */
+    @SneakyThrows
+    public void acquireConnection(String url) {
+        if (maxConnectionsPerHost == 0) return;
+        getConnections(url).acquire();
+    }
+
+    public void releaseConnection(String url) {
+        if (maxConnectionsPerHost == 0) return;
+        getConnections(url).release();
+    }
+
+    /**
+     * Takes the given amount of bytes from the budget, going into debt if needed.
+     *
+     * @return how long the caller should pause before reading more, in nanoseconds
+     */
+    public synchronized long reserveBytes(long bytes) {
+        if (maxBytesPerSecond == 0) return 0;
+
+        final long now = System.nanoTime();
+        availableBytes = Math.min(maxBytesPerSecond, availableBytes + (now - refilledAt) * maxBytesPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+
+        availableBytes -= bytes;
+        return availableBytes >= 0 ? 0 : (long) (-availableBytes * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond);
+    }
+
+    private Semaphore getConnections(String url) {
+        final String host = URI.create(url).getAuthority();
+        return connections.computeIfAbsent(host == null ? "" : host, k -> new Semaphore(maxConnectionsPerHost, true));
+    }
+}
@@ -0,0 +1,343 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import io.github.blackbaroness.loader.runtime.LoaderUtils;
+import io.github.blackbaroness.loader.runtime.ResponseStatusException;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Downloads files over HTTP, splitting large ones into concurrent byte-range segments.
+ * <p>
+ * The first request always asks for the first segment only. If the repository answers with
+ * {@code 206 Partial Content}, the total size is taken from {@code Content-Range}, the file is
+ * pre-allocated and the remaining segments are requested in parallel, each written at its own offset.
+ * If the repository ignores the range and answers with {@code 200 OK}, the whole body is streamed as usual.
+ * <p>
+ * The SHA-1 of the file is computed while the bytes arrive, in file order. Bytes a segment receives ahead of
+ * the hashed prefix are read back from the (still cached) file once the prefix reaches them, see {@link OrderedDigest}.
+ * <p>
+ * Progress of segmented downloads is journaled next to the file. An interrupted download, even one
+ * of a previous run, continues with range requests where every segment stopped.
+ * <p>
+ * Every request goes through the {@link DownloadScheduler}, which limits connections and bandwidth.
+ * Requests time out if the headers don't arrive in time, and bodies are aborted if they stall.
+ * Network errors and transient statuses are retried a few times with jittered exponential backoff.
+ */
+@RequiredArgsConstructor
+public class Downloader {
+
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+
+    private static final int MAX_TRIES = 3;
+    private static final long BACKOFF_BASE_MILLIS = 250;
+    private static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final long WATCHDOG_INTERVAL_MILLIS = 500;
+
+    private final HttpClient httpClient;
+    private final DownloadScheduler scheduler;
+
+    public String downloadString(String url) {
+        return withRetries(null, () -> {
+            scheduler.acquireConnection(url);
+            try {
+                return LoaderUtils.downloadString(httpClient, url);
+            } finally {
+                scheduler.releaseConnection(url);
+            }
+        });
+    }
+
+    /**
+     * Downloads the file, continuing a partial download of the same destination if there is one.
+     * The journal of a partial download is kept next to the destination until the download completes.
+     *
+     * @return the SHA-1 of the downloaded file
+     */
+    public String download(String url, Path destination, Transfer transfer) {
+        return withRetries(transfer, () -> downloadOnce(url, destination, transfer));
+    }
+
+    /**
+     * Removes a partial download along with its journal.
+     */
+    @SneakyThrows
+    public static void discard(Path destination) {
+        Files.deleteIfExists(destination);
+        Files.deleteIfExists(getJournalFile(destination));
+    }
+
+    @SneakyThrows
+    private String downloadOnce(String url, Path destination, Transfer transfer) {
+        Files.createDirectories(destination.getParent());
+
+        final DownloadJournal previous = Files.exists(destination) ? DownloadJournal.read(getJournalFile(destination)) : null;
+        if (previous != null && Files.size(destination) == previous.getTotalSize()) {
+            try {
+                return resume(url, destination, previous, transfer);
+            } catch (Throwable t) {
+                if (isTransient(t) || transfer.isCancelled()) throw t;
+
+                // the repository can't continue this download, e.g. it served a different file
+                discard(destination);
+            }
+        }
+
+        return downloadFromScratch(url, destination, transfer);
+    }
+
+    @SneakyThrows
+    private String downloadFromScratch(String url, Path destination, Transfer transfer) {
+        Files.deleteIfExists(getJournalFile(destination));
+
+        // closing the file also stops segments of a failed try that are still running
+        try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+            file.setLength(0);
+            final FileChannel channel = file.getChannel();
+
+            // the first segment doubles as a probe for range support
+            final DownloadJournal.Segment first = new DownloadJournal.Segment(0, SEGMENT_SIZE - 1);
+            final OrderedDigest digest = new OrderedDigest(channel, List.of(first));
+            final CompletableFuture<Long> totalSize = new CompletableFuture<>();
+            final CompletableFuture<HttpResponse<Long>> firstSegment = send(url, transfer, () -> httpClient.sendAsync(
+                createRequest(url, 0, SEGMENT_SIZE - 1),
+                info -> {
+                    totalSize.complete(info.statusCode() == 206 ? parseContentRange(info, 0)[2] : -1);
+                    return createSubscriber(info, channel, first, digest, transfer);
+                }
+            ));
+            firstSegment.whenComplete((response, t) -> {
+                if (t != null) totalSize.completeExceptionally(t);
+            });
+
+            final long total;
+            try {
+                total = await(url, totalSize, transfer, null);
+                if (total == -1) {
+                    // the repository does not support ranges, a single stream is all we can do
+                    LoaderUtils.validateResponse(await(url, firstSegment, transfer, null));
+                    return digest.finish();
+                }
+            } catch (Throwable t) {
+                transfer.abort(t);
+                throw t;
+            }
+
+            file.setLength(total);
+            first.clampTo(total);
+
+            final List<DownloadJournal.Segment> segments = new ArrayList<>();
+            segments.add(first);
+
+            final long remaining = total - SEGMENT_SIZE;
+            if (remaining > 0) {
+                final int count = (int) Math.min(MAX_SEGMENTS - 1, (remaining + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+                final long partSize = (remaining + count - 1) / count;
+                for (int i = 0; i < count; i++) {
+                    final long start = SEGMENT_SIZE + i * partSize;
+                    segments.add(new DownloadJournal.Segment(start, Math.min(total, start + partSize) - 1));
+                }
+            }
+
+            final DownloadJournal journal = new DownloadJournal(getJournalFile(destination), total, segments);
+            digest.setSegments(journal.getSegments());
+            final List<CompletableFuture<HttpResponse<Long>>> requests = new ArrayList<>();
+            requests.add(firstSegment);
+            for (final DownloadJournal.Segment segment : segments.subList(1, segments.size())) {
+                requests.add(requestSegment(url, channel, segment, digest, transfer, total));
+            }
+
+            return finish(url, channel, journal, requests, digest, transfer);
+        }
+    }
+
+    @SneakyThrows
+    private String resume(String url, Path destination, DownloadJournal journal, Transfer transfer) {
+        try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "rw")) {
+            final FileChannel channel = file.getChannel();
+
+            // the bytes we already have come first
+            final OrderedDigest digest = new OrderedDigest(channel, journal.getSegments());
+            digest.catchUp();
+
+            final List<CompletableFuture<HttpResponse<Long>>> requests = new ArrayList<>();
+            for (final DownloadJournal.Segment segment : journal.getSegments()) {
+                if (segment.isComplete()) continue;
+                requests.add(requestSegment(url, channel, segment, digest, transfer, journal.getTotalSize()));
+            }
+
+            return finish(url, channel, journal, requests, digest, transfer);
+        }
+    }
+
+    /**
+     * Waits for all segments, saving the journal as they progress.
+     */
+    @SneakyThrows
+    private String finish(String url, FileChannel channel, DownloadJournal journal, List<CompletableFuture<HttpResponse<Long>>> requests, OrderedDigest digest, Transfer transfer) {
+        try {
+            for (final CompletableFuture<HttpResponse<Long>> request : requests) {
+                LoaderUtils.validateResponse(await(url, request, transfer, () -> checkpoint(channel, journal)));
+            }
+
+            for (final DownloadJournal.Segment segment : journal.getSegments()) {
+                if (!segment.isComplete())
+                    throw new IllegalStateException("Download of " + url + " stopped at byte " + segment.getPosition() + ", but expected " + (segment.getEnd() + 1));
+            }
+        } catch (Throwable t) {
+            // one failed segment fails the whole try, keep what we have for the next one
+            transfer.abort(t);
+            checkpoint(channel, journal);
+            throw t;
+        }
+
+        final String sha1 = digest.finish(journal.getTotalSize());
+        journal.delete();
+        return sha1;
+    }
+
+    private CompletableFuture<HttpResponse<Long>> requestSegment(String url, FileChannel channel, DownloadJournal.Segment segment, OrderedDigest digest, Transfer transfer, long total) {
+        final long start = segment.getPosition();
+        return send(url, transfer, () -> httpClient.sendAsync(
+            createRequest(url, start, segment.getEnd()),
+            info -> {
+                if (info.statusCode() != 206)
+                    throw new IllegalStateException("Repository ignored range request for " + url + " (" + info.statusCode() + ")");
+                if (parseContentRange(info, start)[2] != total)
+                    throw new IllegalStateException("Size of " + url + " changed from " + total + " bytes");
+                return createSubscriber(info, channel, segment, digest, transfer);
+            }
+        ));
+    }
+
+    @SneakyThrows
+    private void checkpoint(FileChannel channel, DownloadJournal journal) {
+        // the data must be on disk before the journal claims it
+        channel.force(false);
+        journal.save();
+    }
+
+    private static Path getJournalFile(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + ".journal");
+    }
+
+    /**
+     * Starts a request once the scheduler allows another connection, and gives the connection back when it is done.
+     * The time spent waiting for the connection is not counted as a stall.
+     */
+    private <T> CompletableFuture<T> send(String url, Transfer transfer, Supplier<CompletableFuture<T>> request) {
+        scheduler.acquireConnection(url);
+        transfer.touch();
+        try {
+            final CompletableFuture<T> future = request.get();
+            future.whenComplete((result, t) -> scheduler.releaseConnection(url));
+            return future;
+        } catch (Throwable t) {
+            scheduler.releaseConnection(url);
+            throw t;
+        }
+    }
+
+    /**
+     * Waits for the future, aborting the transfer if no data arrives for too long.
+     * The optional tick runs every time the watchdog wakes up.
+     */
+    @SneakyThrows
+    private <T> T await(String url, CompletableFuture<T> future, Transfer transfer, Runnable tick) {
+        while (true) {
+            try {
+                return future.get(WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (tick != null) tick.run();
+                if (transfer.getIdleNanos() > STALL_TIMEOUT_NANOS) {
+                    transfer.abort(new HttpTimeoutException("No data received from " + url + " for " + TimeUnit.NANOSECONDS.toSeconds(STALL_TIMEOUT_NANOS) + " seconds"));
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @SneakyThrows
+    private <T> T withRetries(Transfer transfer, Supplier<T> action) {
+        for (int tries = 1; ; tries++) {
+            if (transfer != null) transfer.touch();
+
+            try {
+                return action.get();
+            } catch (Throwable t) {
+                if (tries == MAX_TRIES || !isTransient(t) || (transfer != null && transfer.isCancelled()))
+                    throw t;
+
+                // full jitter, so loaders restarted together don't retry in lockstep
+                Thread.sleep(ThreadLocalRandom.current().nextLong(BACKOFF_BASE_MILLIS << tries));
+            }
+        }
+    }
+
+    private static boolean isTransient(Throwable t) {
+        if (t instanceof ResponseStatusException) return ((ResponseStatusException) t).isTransient();
+        return t instanceof IOException;
+    }
+
+    private HttpRequest createRequest(String url, long start, long end) {
+        return HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .timeout(LoaderUtils.REQUEST_TIMEOUT)
+            .header("Range", "bytes=" + start + "-" + end)
+            .GET()
+            .build();
+    }
+
+    private HttpResponse.BodySubscriber<Long> createSubscriber(HttpResponse.ResponseInfo info, FileChannel channel, DownloadJournal.Segment segment, OrderedDigest digest, Transfer transfer) {
+        if (info.statusCode() < 200 || info.statusCode() >= 300) {
+            // the response is going to be rejected anyway, don't write error pages into the file
+            return HttpResponse.BodySubscribers.replacing(0L);
+        }
+
+        final FileSegmentSubscriber subscriber = new FileSegmentSubscriber(channel, segment.getPosition(), digest, scheduler.limitsBandwidth() ? scheduler : null, transfer);
+        segment.attach(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Parses {@code Content-Range: bytes start-end/total} into {@code [start, end, total]}.
+     */
+    private long[] parseContentRange(HttpResponse.ResponseInfo info, long expectedStart) {
+        final String header = info.headers().firstValue("Content-Range")
+            .orElseThrow(() -> new IllegalStateException("Partial response without Content-Range header"));
+
+        try {
+            final String range = header.substring(header.indexOf(' ') + 1);
+            final int dash = range.indexOf('-');
+            final int slash = range.indexOf('/');
+            final long[] result = {
+                Long.parseLong(range.substring(0, dash)),
+                Long.parseLong(range.substring(dash + 1, slash)),
+                Long.parseLong(range.substring(slash + 1))
+            };
+
+            if (result[0] != expectedStart)
+                throw new IllegalStateException("Expected range to start at " + expectedStart + ", got '" + header + "'");
+
+            return result;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalStateException("Malformed Content-Range header '" + header + "'", e);
+        }
+    }
+}
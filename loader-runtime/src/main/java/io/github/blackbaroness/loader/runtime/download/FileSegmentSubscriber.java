@@ -0,0 +1,130 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A body subscriber that writes a response body into a {@link FileChannel} starting at a fixed offset.
+ * Several subscribers may share one channel as long as their byte ranges do not overlap.
+ * <p>
+ * If a digest is given, every written chunk is passed to it, see {@link OrderedDigest}.
+ * If a scheduler is given, the next chunk is only requested once the bandwidth budget allows it.
+ * Progress is reported to the {@link Transfer}, which may also cancel the segment at any time.
+ */
+final class FileSegmentSubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    private final FileChannel channel;
+    private final long start;
+    private final OrderedDigest digest;
+    private final DownloadScheduler scheduler;
+    private final Transfer transfer;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private volatile long position;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean cancelled;
+
+    FileSegmentSubscriber(FileChannel channel, long start, OrderedDigest digest, DownloadScheduler scheduler, Transfer transfer) {
+        this.channel = channel;
+        this.start = start;
+        this.digest = digest;
+        this.scheduler = scheduler;
+        this.transfer = transfer;
+        this.position = start;
+        transfer.register(this);
+    }
+
+    /**
+     * @return the offset of the next byte to write, everything before it is written
+     */
+    long getPosition() {
+        return position;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        if (cancelled) return;
+
+        final long before = position;
+        long written = before;
+        try {
+            for (final ByteBuffer buffer : items) {
+                final long bufferStart = written;
+                final ByteBuffer data = buffer.duplicate();
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, written);
+                }
+                position = written;
+
+                if (digest != null) {
+                    digest.update(bufferStart, data);
+                }
+            }
+        } catch (IOException e) {
+            cancel(e);
+            return;
+        }
+
+        transfer.onReceived(written - before);
+
+        final long delay = scheduler == null ? 0 : scheduler.reserveBytes(position - before);
+        if (delay > 0) {
+            // backpressure: the client stops reading from the socket until more data is requested,
+            // the pause is ours, so the stall clock starts when it ends
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                if (cancelled) return;
+                transfer.touch();
+                subscription.request(1);
+            });
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        transfer.unregister(this);
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        transfer.unregister(this);
+        result.complete(position - start);
+    }
+
+    /**
+     * Stops reading and fails the body with the given reason, may be called from any thread.
+     */
+    void cancel(Throwable reason) {
+        cancelled = true;
+        transfer.unregister(this);
+
+        final Flow.Subscription subscription = this.subscription;
+        if (subscription != null) subscription.cancel();
+        result.completeExceptionally(reason);
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import io.github.blackbaroness.loader.runtime.LoaderUtils;
+import lombok.SneakyThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * The SHA-1 of a file that several segments write at once. The digest needs the bytes in file order:
+ * bytes that continue the hashed prefix are fed to it as they are written, and bytes a later segment wrote
+ * ahead of the prefix are read back once the prefix reaches them, while they are still cached.
+ * After that, the segment continues the prefix and is hashed as it arrives as well.
+ */
+final class OrderedDigest {
+
+    private final FileChannel channel;
+    private final MessageDigest digest;
+
+    private List<DownloadJournal.Segment> segments;
+    private long hashed;
+
+    @SneakyThrows
+    OrderedDigest(FileChannel channel, List<DownloadJournal.Segment> segments) {
+        this.channel = channel;
+        this.digest = MessageDigest.getInstance("SHA-1");
+        this.segments = segments;
+    }
+
+    /**
+     * Sets the segments of the file once they are known, ordered by their start.
+     */
+    synchronized void setSegments(List<DownloadJournal.Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Called by a segment after it wrote the data at the given offset.
+     */
+    synchronized void update(long position, ByteBuffer data) {
+        final long end = position + data.remaining();
+        if (position <= hashed && end > hashed) {
+            data.position(data.position() + (int) (hashed - position));
+            digest.update(data);
+            hashed = end;
+        }
+
+        catchUp();
+    }
+
+    /**
+     * Hashes the bytes the segments already wrote right after the hashed prefix.
+     */
+    @SneakyThrows
+    synchronized void catchUp() {
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (final DownloadJournal.Segment segment : segments) {
+            if (segment.getEnd() < hashed) continue;
+            if (segment.getStart() > hashed) return;
+
+            final long written = Math.min(segment.getPosition(), segment.getEnd() + 1);
+            while (hashed < written) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), written - hashed));
+                final int read = channel.read(buffer, hashed);
+                if (read <= 0) throw new IllegalStateException("Unexpected end of file at byte " + hashed);
+
+                digest.update(buffer.flip());
+                hashed += read;
+            }
+
+            if (segment.getPosition() <= segment.getEnd()) return;
+        }
+    }
+
+    /**
+     * @return the SHA-1 of the whole file
+     * @throws IllegalStateException if the file was not hashed up to the given size
+     */
+    synchronized String finish(long totalSize) {
+        catchUp();
+        if (hashed != totalSize)
+            throw new IllegalStateException("Hashed " + hashed + " bytes, but the file has " + totalSize);
+
+        return LoaderUtils.bytesToHex(digest.digest());
+    }
+
+    /**
+     * @return the SHA-1 of a file that was written by a single stream
+     */
+    synchronized String finish() {
+        return LoaderUtils.bytesToHex(digest.digest());
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonParser;
+import com.grack.nanojson.JsonWriter;
+import io.github.blackbaroness.loader.runtime.LoaderUtils;
+import lombok.SneakyThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Tracks how well every repository serves artifacts and orders repositories accordingly.
+ * <p>
+ * Statistics survive restarts in a small JSON file. Hits and misses are tracked per group prefix
+ * ({@code com.google}, {@code net.kyori}, ...), so a repository that served a prefix before is tried first,
+ * and a repository that never had it is tried last. Repositories that keep failing with errors
+ * (not just missing artifacts) are skipped for the rest of the run.
+ */
+public class RepositoryHealth {
+
+    private static final int SKIP_AFTER_FAILURES = 3;
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final Path file;
+    private final Logger logger;
+
+    private final Map<String, Stats> repositories = new HashMap<>();
+    private final Map<String, Map<String, Stats>> groups = new HashMap<>();
+    private final Map<String, Integer> consecutiveFailures = new HashMap<>();
+
+    public RepositoryHealth(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+        load();
+    }
+
+    /**
+     * Returns repositories that are worth trying for the group, best first. Declared order breaks ties.
+     */
+    public synchronized List<String> rank(Collection<String> declaredRepositories, String groupId) {
+        final Map<String, Stats> groupStats = groups.getOrDefault(toGroupPrefix(groupId), Collections.emptyMap());
+
+        final List<String> result = new ArrayList<>(declaredRepositories.size());
+        for (final String repository : declaredRepositories) {
+            if (consecutiveFailures.getOrDefault(repository, 0) < SKIP_AFTER_FAILURES) {
+                result.add(repository);
+            }
+        }
+
+        result.sort(
+            Comparator.<String>comparingInt(repository -> groupTier(groupStats.get(repository)))
+                .thenComparingDouble(repository -> getStats(repository).errorRate())
+                .thenComparingDouble(repository -> getStats(repository).latencyMillis)
+        );
+        return result;
+    }
+
+    public synchronized void recordHit(String repository, String groupId, long latencyNanos) {
+        getStats(repository).recordLatency(latencyNanos).hits++;
+        getGroupStats(repository, groupId).hits++;
+        consecutiveFailures.remove(repository);
+    }
+
+    public synchronized void recordMiss(String repository, String groupId, long latencyNanos) {
+        getStats(repository).recordLatency(latencyNanos).misses++;
+        getGroupStats(repository, groupId).misses++;
+        consecutiveFailures.remove(repository);
+    }
+
+    public synchronized void recordError(String repository) {
+        getStats(repository).errors++;
+
+        final int failures = consecutiveFailures.merge(repository, 1, Integer::sum);
+        if (failures == SKIP_AFTER_FAILURES && logger != null)
+            logger.warning("Loader: repository " + repository + " failed " + failures + " times in a row, skipping it for the rest of this run");
+    }
+
+    @SneakyThrows
+    public synchronized void save() {
+        final JsonObject repositoriesObject = new JsonObject();
+        repositories.forEach((repository, stats) -> repositoriesObject.put(repository, stats.toJson()));
+
+        final JsonObject groupsObject = new JsonObject();
+        groups.forEach((group, statsByRepository) -> {
+            final JsonObject groupObject = new JsonObject();
+            statsByRepository.forEach((repository, stats) -> groupObject.put(repository, stats.toJson()));
+            groupsObject.put(group, groupObject);
+        });
+
+        final JsonObject root = new JsonObject();
+        root.put("repositories", repositoriesObject);
+        root.put("groups", groupsObject);
+
+        LoaderUtils.writeStringAtomically(file, JsonWriter.string(root));
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+
+        try {
+            final JsonObject root = JsonParser.object().from(Files.readString(file));
+            root.getObject("repositories").forEach((repository, value) ->
+                repositories.put(repository, Stats.fromJson((JsonObject) value)));
+            root.getObject("groups").forEach((group, value) -> {
+                final Map<String, Stats> statsByRepository = new HashMap<>();
+                ((JsonObject) value).forEach((repository, stats) ->
+                    statsByRepository.put(repository, Stats.fromJson((JsonObject) stats)));
+                groups.put(group, statsByRepository);
+            });
+        } catch (Exception e) {
+            // statistics are only a hint, start over
+            repositories.clear();
+            groups.clear();
+            if (logger != null) logger.warning("Loader: ignoring unreadable repository statistics " + file + ": " + e);
+        }
+    }
+
+    private Stats getStats(String repository) {
+        return repositories.computeIfAbsent(repository, k -> new Stats());
+    }
+
+    private Stats getGroupStats(String repository, String groupId) {
+        return groups.computeIfAbsent(toGroupPrefix(groupId), k -> new HashMap<>())
+            .computeIfAbsent(repository, k -> new Stats());
+    }
+
+    private static int groupTier(Stats stats) {
+        if (stats == null) return 1;
+        if (stats.hits > 0) return 0;
+        return stats.misses > 0 ? 2 : 1;
+    }
+
+    private static String toGroupPrefix(String groupId) {
+        final int first = groupId.indexOf('.');
+        if (first == -1) return groupId;
+
+        final int second = groupId.indexOf('.', first + 1);
+        return second == -1 ? groupId : groupId.substring(0, second);
+    }
+
+    private static final class Stats {
+
+        long hits;
+        long misses;
+        long errors;
+        double latencyMillis;
+
+        Stats recordLatency(long latencyNanos) {
+            final double sample = latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+            latencyMillis = latencyMillis == 0 ? sample : latencyMillis * (1 - LATENCY_WEIGHT) + sample * LATENCY_WEIGHT;
+            return this;
+        }
+
+        double errorRate() {
+            final long total = hits + misses + errors;
+            return total == 0 ? 0 : errors / (double) total;
+        }
+
+        JsonObject toJson() {
+            final JsonObject object = new JsonObject();
+            object.put("hits", hits);
+            object.put("misses", misses);
+            object.put("errors", errors);
+            object.put("latencyMillis", latencyMillis);
+            return object;
+        }
+
+        static Stats fromJson(JsonObject object) {
+            final Stats stats = new Stats();
+            stats.hits = object.getLong("hits");
+            stats.misses = object.getLong("misses");
+            stats.errors = object.getLong("errors");
+            stats.latencyMillis = object.getDouble("latencyMillis");
+            return stats;
+        }
+    }
+}
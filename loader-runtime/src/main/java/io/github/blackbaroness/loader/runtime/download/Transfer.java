@@ -0,0 +1,87 @@
+package io.github.blackbaroness.loader.runtime.download;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The state of one download attempt, shared by all of its segments and retries.
+ * It tells how fast the attempt goes and allows to abort it from another thread,
+ * which also aborts connections that are stuck waiting for data.
+ */
+public final class Transfer {
+
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final List<FileSegmentSubscriber> segments = new CopyOnWriteArrayList<>();
+
+    private volatile long lastActivityAt = startedAt;
+    private volatile Throwable cancellation;
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startedAt;
+    }
+
+    /**
+     * @return the average speed since the attempt started, in bytes per second
+     */
+    public double getBytesPerSecond() {
+        return getReceivedBytes() * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, getElapsedNanos());
+    }
+
+    /**
+     * @return how long no data arrived, in nanoseconds
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastActivityAt;
+    }
+
+    public boolean isCancelled() {
+        return cancellation != null;
+    }
+
+    /**
+     * Aborts every running segment of this attempt, they fail with the given reason.
+     */
+    public void cancel(Throwable reason) {
+        if (cancellation != null) return;
+        cancellation = reason;
+        segments.forEach(segment -> segment.cancel(reason));
+    }
+
+    /**
+     * Aborts the segments running right now, but lets the attempt be retried.
+     */
+    void abort(Throwable reason) {
+        segments.forEach(segment -> segment.cancel(reason));
+    }
+
+    /**
+     * Restarts the stall clock after a wait of our own, like a retry, a queued connection or a bandwidth pause.
+     */
+    void touch() {
+        lastActivityAt = System.nanoTime();
+    }
+
+    void register(FileSegmentSubscriber segment) {
+        segments.add(segment);
+
+        // the attempt may have been cancelled right before the segment arrived
+        final Throwable cancellation = this.cancellation;
+        if (cancellation != null) segment.cancel(cancellation);
+    }
+
+    void unregister(FileSegmentSubscriber segment) {
+        segments.remove(segment);
+    }
+
+    void onReceived(long bytes) {
+        receivedBytes.addAndGet(bytes);
+        lastActivityAt = System.nanoTime();
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import org.objectweb.asm.ClassReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Decides whether a class may be affected by relocations by looking at the raw UTF8 entries of its constant pool.
+ * <p>
+ * Every name, descriptor, signature and string constant a remapper could touch lives in such an entry, so a class
+ * none of whose entries contain a relocation pattern (in path or dotted form) comes out of the remapper unchanged.
+ * The check is conservative: includes and excludes are ignored, a match only means the class has to be rewritten.
+ */
+final class ConstantPoolScanner {
+
+    private static final int UTF8_TAG = 1;
+
+    private final byte[][] patterns;
+
+    ConstantPoolScanner(Collection<Relocation> rules) {
+        Set<String> patterns = new LinkedHashSet<>();
+        for (Relocation rule : rules) {
+            patterns.add(rule.getPathPattern());
+            patterns.add(rule.getPattern());
+        }
+
+        // names in the constant pool are modified UTF-8, which only differs from UTF-8 for '\0' and supplementary characters
+        this.patterns = new byte[patterns.size()][];
+        int i = 0;
+        for (String pattern : patterns) {
+            this.patterns[i++] = pattern.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    boolean mayRelocate(ClassReader reader, byte[] bytes) {
+        for (int item = 1; item < reader.getItemCount(); item++) {
+            // points right after the tag, zero for the unusable slot after a long or double
+            int offset = reader.getItem(item);
+            if (offset == 0 || bytes[offset - 1] != UTF8_TAG) {
+                continue;
+            }
+
+            int start = offset + 2;
+            int end = start + reader.readUnsignedShort(offset);
+            for (byte[] pattern : this.patterns) {
+                if (contains(bytes, start, end, pattern)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean contains(byte[] bytes, int start, int end, byte[] pattern) {
+        if (pattern.length == 0) {
+            return true;
+        }
+
+        byte first = pattern[0];
+        for (int i = start, last = end - pattern.length; i <= last; i++) {
+            if (bytes[i] != first) {
+                continue;
+            }
+
+            int j = 1;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
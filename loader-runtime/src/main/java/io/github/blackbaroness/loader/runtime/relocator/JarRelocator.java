@@ -18,30 +18,37 @@
  */
 package io.github.blackbaroness.loader.runtime.relocator;
 
+import io.github.blackbaroness.loader.runtime.HashAlgorithm;
+import io.github.blackbaroness.loader.runtime.Hasher;
+import io.github.blackbaroness.loader.runtime.OutputCompression;
+
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 
 public final class JarRelocator {
 
     private final Path input;
     private final Path output;
-    private final RelocatingRemapper remapper;
+    private final Collection<Relocation> relocations;
 
     private final AtomicBoolean used = new AtomicBoolean(false);
 
+    private final Set<HashAlgorithm> outputHashAlgorithms = EnumSet.of(HashAlgorithm.SHA1);
+    private final Map<HashAlgorithm, String> outputDigests = new EnumMap<>(HashAlgorithm.class);
+    private OutputCompression outputCompression = OutputCompression.MAX;
+    private MappingCache mappingCache;
+
     public JarRelocator(Path input, Path output, Collection<Relocation> relocations) {
         this.input = input;
         this.output = output;
-        this.remapper = new RelocatingRemapper(relocations);
+        this.relocations = relocations;
     }
 
     public JarRelocator(Path input, Path output, Map<String, String> relocations) {
@@ -51,7 +58,7 @@ public JarRelocator(Path input, Path output, Map<String, String> relocations) {
         for (Map.Entry<String, String> entry : relocations.entrySet()) {
             c.add(new Relocation(entry.getKey(), entry.getValue()));
         }
-        this.remapper = new RelocatingRemapper(c);
+        this.relocations = c;
     }
 
     public void run() throws IOException {
@@ -61,13 +68,95 @@ public void run() throws IOException {
 
         Files.createDirectories(this.output.getParent());
 
-        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(this.output)))) {
-            out.setLevel(9);
-            try (JarFile in = new JarFile(this.input.toFile())) {
-                JarRelocatorTask task = new JarRelocatorTask(this.remapper, out, in, List.of(new ServicesResourceTransformer()));
+        // the output is hashed while it is written, so it never has to be read back
+        Map<HashAlgorithm, Hasher> hashers = new EnumMap<>(HashAlgorithm.class);
+        for (HashAlgorithm algorithm : this.outputHashAlgorithms) {
+            hashers.put(algorithm, algorithm.newHasher());
+        }
+
+        try (ZipWriter out = new ZipWriter(new BufferedOutputStream(new HashingOutputStream(Files.newOutputStream(this.output), hashers.values())), this.outputCompression.getLevel())) {
+            try (ZipReader in = new ZipReader(this.input)) {
+                JarRelocatorTask task = new JarRelocatorTask(new RelocatingRemapper(this.relocations, this.mappingCache), out, in, List.of(new ServicesResourceTransformer()), ForkJoinPool.commonPool());
                 task.processEntries();
             }
         }
+
+        hashers.forEach((algorithm, hasher) -> this.outputDigests.put(algorithm, hasher.digest()));
+    }
+
+    /**
+     * Requests an additional digest of the output jar, computed while it is written. SHA-1 is always computed.
+     *
+     * @param algorithm the algorithm
+     * @return this relocator
+     */
+    public JarRelocator hashOutput(HashAlgorithm algorithm) {
+        this.outputHashAlgorithms.add(algorithm);
+        return this;
+    }
+
+    /**
+     * Sets how the output jar is compressed, {@link OutputCompression#MAX} by default.
+     *
+     * @param compression the compression
+     * @return this relocator
+     */
+    public JarRelocator compressOutput(OutputCompression compression) {
+        this.outputCompression = compression;
+        return this;
+    }
+
+    /**
+     * Sets a cache of mapped names to use, e.g. one shared by all relocators with the same relocations.
+     *
+     * @param mappingCache the cache, or {@code null} to not cache anything
+     * @return this relocator
+     */
+    public JarRelocator mappingCache(MappingCache mappingCache) {
+        this.mappingCache = mappingCache;
+        return this;
+    }
+
+    /**
+     * Returns a digest of the written output jar.
+     *
+     * @param algorithm the algorithm, must be SHA-1 or requested with {@link #hashOutput(HashAlgorithm)}
+     * @return the hex encoded digest, or {@code null} if {@link #run()} has not completed yet
+     */
+    public String getOutputDigest(HashAlgorithm algorithm) {
+        return this.outputDigests.get(algorithm);
+    }
+
+    /**
+     * Returns the SHA-1 of the written output jar.
+     *
+     * @return the hex encoded SHA-1, or {@code null} if {@link #run()} has not completed yet
+     */
+    public String getOutputSha1() {
+        return getOutputDigest(HashAlgorithm.SHA1);
+    }
+
+    private static final class HashingOutputStream extends FilterOutputStream {
+
+        private final Collection<Hasher> hashers;
+
+        HashingOutputStream(OutputStream out, Collection<Hasher> hashers) {
+            super(out);
+            this.hashers = hashers;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (Hasher hasher : this.hashers) {
+                hasher.update(b, off, len);
+            }
+            this.out.write(b, off, len);
+        }
     }
 
 }
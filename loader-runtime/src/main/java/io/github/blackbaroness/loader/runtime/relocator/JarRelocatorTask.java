@@ -21,17 +21,28 @@
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.*;
-import java.util.jar.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 
 /**
- * A task that copies {@link JarEntry jar entries} from a {@link JarFile jar input} to a
- * {@link JarOutputStream jar output}, applying the relocations defined by a
+ * A task that copies {@link ZipReader.Entry jar entries} from a {@link ZipReader jar input} to a
+ * {@link ZipWriter jar output}, applying the relocations defined by a
  * {@link RelocatingRemapper}.
+ * <p>
+ * Classes are relocated in parallel on a {@link ForkJoinPool}, while entries are still written one by one
+ * in the order of the input, so the output is the same as if everything ran on a single thread.
+ * Entries whose content doesn't change are copied without being decompressed and compressed again.
+ * <p>
+ * The output only depends on the input and the relocations: entries keep the order of the input, with directories
+ * created right before their first entry, and every entry gets the same fixed time.
  */
 final class JarRelocatorTask {
 
@@ -50,74 +61,89 @@ final class JarRelocatorTask {
      */
     private static final Pattern SIGNATURE_PROPERTY_PATTERN = Pattern.compile(".*-Digest");
 
+    /**
+     * How many entries may be read ahead of the one being written, per thread of the pool.
+     */
+    private static final int READ_AHEAD_PER_THREAD = 16;
+
     private final RelocatingRemapper remapper;
-    private final JarOutputStream jarOut;
-    private final JarFile jarIn;
+    private final ZipWriter jarOut;
+    private final ZipReader jarIn;
     private final List<ResourceTransformer> transformers;
+    private final ForkJoinPool pool;
+    private final ConstantPoolScanner scanner;
 
     private final Set<String> resources = new HashSet<>();
 
-    JarRelocatorTask(RelocatingRemapper remapper, JarOutputStream jarOut, JarFile jarIn, List<ResourceTransformer> transformers) {
+    JarRelocatorTask(RelocatingRemapper remapper, ZipWriter jarOut, ZipReader jarIn, List<ResourceTransformer> transformers, ForkJoinPool pool) {
         this.remapper = remapper;
         this.jarOut = jarOut;
         this.jarIn = jarIn;
         this.transformers = transformers;
-    }
-
-    private static void copy(InputStream from, OutputStream to) throws IOException {
-        byte[] buf = new byte[8192];
-        while (true) {
-            int n = from.read(buf);
-            if (n == -1) {
-                break;
-            }
-            to.write(buf, 0, n);
-        }
+        this.pool = pool;
+        this.scanner = new ConstantPoolScanner(remapper.getRules());
     }
 
     void processEntries() throws IOException {
-        for (Enumeration<JarEntry> entries = this.jarIn.entries(); entries.hasMoreElements(); ) {
-            JarEntry entry = entries.nextElement();
-
-            // The 'INDEX.LIST' file is an optional file, containing information about the packages
-            // defined in a jar. Instead of relocating the entries in it, we delete it, since it is
-            // optional anyway.
-            //
-            // We don't process directory entries, and instead opt to recreate them when adding
-            // classes/resources.
-            String name = entry.getName();
-            if (name.equals("META-INF/INDEX.LIST") || entry.isDirectory()) {
+        // entries waiting to be written, classes among them are being relocated meanwhile
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        int readAhead = this.pool.getParallelism() > 1 ? this.pool.getParallelism() * READ_AHEAD_PER_THREAD : 0;
+
+        for (ZipReader.Entry entry : this.jarIn.getEntries()) {
+            if (isSkipped(entry)) {
                 continue;
             }
 
-            // Signatures will become invalid after remapping, so we delete them to avoid making the output useless
-            if (SIGNATURE_FILE_PATTERN.matcher(name).matches()) {
-                continue;
+            String name = entry.getName();
+
+            if (name.endsWith(".class")) {
+                byte[] bytes = this.jarIn.readAllBytes(entry);
+                pending.add(new PendingEntry(entry, bytes, readAhead == 0 ? null : this.pool.submit(() -> relocateClass(name, bytes))));
+            } else {
+                pending.add(new PendingEntry(entry, null, null));
             }
 
-            try (InputStream entryIn = this.jarIn.getInputStream(entry)) {
-                processEntry(entry, entryIn);
+            while (pending.size() > readAhead) {
+                writeEntry(pending.poll());
             }
         }
 
+        while (!pending.isEmpty()) {
+            writeEntry(pending.poll());
+        }
+
         for (ResourceTransformer transformer : this.transformers) {
             transformer.writeOutput(this.jarOut);
         }
     }
 
-    private void processEntry(JarEntry entry, InputStream entryIn) throws IOException {
+    private void writeEntry(PendingEntry pendingEntry) throws IOException {
+        if (pendingEntry.classBytes != null) {
+            String name = pendingEntry.entry.getName();
+
+            // ensure the parent directory structure exists for the entry.
+            processDirectory(this.remapper.map(name), true);
+            // without read-ahead nothing was submitted, so the class is relocated right here
+            processClass(pendingEntry.entry, pendingEntry.relocatedClass != null
+                ? pendingEntry.relocatedClass.join()
+                : relocateClass(name, pendingEntry.classBytes));
+            return;
+        }
+
+        processEntry(pendingEntry.entry);
+    }
+
+    private void processEntry(ZipReader.Entry entry) throws IOException {
         String name = entry.getName();
         String mappedName = this.remapper.map(name);
 
         // ensure the parent directory structure exists for the entry.
         processDirectory(mappedName, true);
 
-        if (name.endsWith(".class")) {
-            processClass(name, entryIn);
-        } else if (name.equals("META-INF/MANIFEST.MF")) {
-            processManifest(name, entryIn, entry.getTime());
+        if (name.equals("META-INF/MANIFEST.MF")) {
+            processManifest(name, entry);
         } else if (!this.resources.contains(mappedName)) {
-            processResource(mappedName, entryIn, entry.getTime());
+            processResource(mappedName, entry);
         }
     }
 
@@ -135,72 +161,122 @@ private void processDirectory(String name, boolean parentsOnly) throws IOExcepti
         }
 
         // directory entries must end in "/"
-        JarEntry entry = new JarEntry(name + "/");
-        this.jarOut.putNextEntry(entry);
+        this.jarOut.writeDirectory(name + "/");
+        this.resources.add(name);
+    }
+
+    private void processManifest(String name, ZipReader.Entry entry) throws IOException {
+        this.jarOut.writeEntry(name, removeSignatureDigests(this.jarIn.readAllBytes(entry)));
+
         this.resources.add(name);
     }
 
-    private void processManifest(String name, InputStream entryIn, long lastModified) throws IOException {
-        Manifest in = new Manifest(entryIn);
+    /**
+     * @return the manifest without the digests of signed entries, which won't match after relocation
+     */
+    static byte[] removeSignatureDigests(byte[] manifest) throws IOException {
+        Manifest in = new Manifest(new ByteArrayInputStream(manifest));
         Manifest out = new Manifest();
 
         out.getMainAttributes().putAll(in.getMainAttributes());
 
-        for (Map.Entry<String, Attributes> entry : in.getEntries().entrySet()) {
+        for (Map.Entry<String, Attributes> section : in.getEntries().entrySet()) {
             Attributes outAttributes = new Attributes();
-            for (Map.Entry<Object, Object> property : entry.getValue().entrySet()) {
+            for (Map.Entry<Object, Object> property : section.getValue().entrySet()) {
                 String key = property.getKey().toString();
                 if (!SIGNATURE_PROPERTY_PATTERN.matcher(key).matches()) {
                     outAttributes.put(property.getKey(), property.getValue());
                 }
             }
-            out.getEntries().put(entry.getKey(), outAttributes);
+            out.getEntries().put(section.getKey(), outAttributes);
         }
 
-        JarEntry jarEntry = new JarEntry(name);
-        jarEntry.setTime(lastModified);
-        this.jarOut.putNextEntry(jarEntry);
-
-        out.write(this.jarOut);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        out.write(bytes);
+        return bytes.toByteArray();
+    }
 
-        this.resources.add(name);
+    /**
+     * Whether the entry is left out of the relocated jar.
+     */
+    static boolean isSkipped(ZipReader.Entry entry) {
+        // The 'INDEX.LIST' file is an optional file, containing information about the packages
+        // defined in a jar. Instead of relocating the entries in it, we delete it, since it is
+        // optional anyway.
+        //
+        // We don't process directory entries, and instead opt to recreate them when adding
+        // classes/resources.
+        //
+        // Signatures will become invalid after remapping, so we delete them to avoid making the output useless
+        String name = entry.getName();
+        return name.equals("META-INF/INDEX.LIST") || entry.isDirectory() || SIGNATURE_FILE_PATTERN.matcher(name).matches();
     }
 
-    private void processResource(String name, InputStream entryIn, long lastModified) throws IOException {
+    private void processResource(String name, ZipReader.Entry entry) throws IOException {
         for (ResourceTransformer transformer : this.transformers) {
             if (transformer.shouldTransformResource(name)) {
-                transformer.processResource(name, entryIn, this.remapper.getRules());
+                try (InputStream entryIn = new ByteArrayInputStream(this.jarIn.readAllBytes(entry))) {
+                    transformer.processResource(name, entryIn, this.remapper.getRules());
+                }
                 return;
             }
         }
 
-        JarEntry jarEntry = new JarEntry(name);
-        jarEntry.setTime(lastModified);
-
-        this.jarOut.putNextEntry(jarEntry);
-        copy(entryIn, this.jarOut);
+        // the content stays the same, so the compressed bytes are copied as they are
+        this.jarOut.copyEntry(name, this.jarIn, entry);
 
         this.resources.add(name);
     }
 
-    private void processClass(String name, InputStream entryIn) throws IOException {
-        ClassReader classReader = new ClassReader(entryIn);
-        ClassWriter classWriter = new ClassWriter(0);
-        RelocatingClassVisitor classVisitor = new RelocatingClassVisitor(classWriter, this.remapper, name);
+    /**
+     * Relocates a single class, it only touches its own objects, so it may run on any thread.
+     *
+     * @return the relocated class, or {@code null} if the class doesn't mention any relocated package
+     */
+    private byte[] relocateClass(String name, byte[] bytes) {
+        return relocateClass(this.remapper, this.scanner, name, bytes);
+    }
 
+    static byte[] relocateClass(RelocatingRemapper remapper, ConstantPoolScanner scanner, String name, byte[] bytes) {
         try {
-            classReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
+            ClassReader classReader = new ClassReader(bytes);
+            if (!scanner.mayRelocate(classReader, bytes)) {
+                return null;
+            }
+
+            // frames are remapped as they are, without expanding them. The writer doesn't start from a copy of the
+            // original constant pool, that would keep every name that was just relocated in the output
+            ClassWriter classWriter = new ClassWriter(0);
+            classReader.accept(new RelocatingClassVisitor(classWriter, remapper, name), 0);
+            return classWriter.toByteArray();
         } catch (Throwable e) {
             throw new RuntimeException("Error processing class " + name, e);
         }
+    }
 
-        byte[] renamedClass = classWriter.toByteArray();
+    private void processClass(ZipReader.Entry entry, byte[] renamedClass) throws IOException {
+        String name = entry.getName();
 
         // Need to take the .class off for remapping evaluation
         String mappedName = this.remapper.map(name.substring(0, name.indexOf('.')));
 
         // Now we put it back on so the class file is written out with the right extension.
-        this.jarOut.putNextEntry(new JarEntry(mappedName + ".class"));
-        this.jarOut.write(renamedClass);
+        if (renamedClass == null) {
+            this.jarOut.copyEntry(mappedName + ".class", this.jarIn, entry);
+        } else {
+            this.jarOut.writeEntry(mappedName + ".class", renamedClass);
+        }
+    }
+
+    private static final class PendingEntry {
+        private final ZipReader.Entry entry;
+        private final byte[] classBytes;
+        private final ForkJoinTask<byte[]> relocatedClass;
+
+        PendingEntry(ZipReader.Entry entry, byte[] classBytes, ForkJoinTask<byte[]> relocatedClass) {
+            this.entry = entry;
+            this.classBytes = classBytes;
+            this.relocatedClass = relocatedClass;
+        }
     }
 }
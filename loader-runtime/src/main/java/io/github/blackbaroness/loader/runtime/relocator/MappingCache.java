@@ -0,0 +1,100 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers how names and string constants were mapped, so names that appear in every descriptor and signature
+ * are only matched against the relocation rules once. Every occurrence of a name gets the same result instance,
+ * which also keeps duplicate relocated strings out of memory.
+ * <p>
+ * A cache may be shared by relocators running at the same time, as long as they all use the same relocations.
+ * When it is full, it starts over instead of tracking which entries were used least.
+ */
+public final class MappingCache {
+
+    private final int maxSize;
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxSize the maximum number of mappings to keep
+     */
+    public MappingCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    String getName(String name) {
+        return get(this.names, name);
+    }
+
+    void putName(String name, String mappedName) {
+        put(this.names, name, mappedName);
+    }
+
+    String getValue(String value) {
+        return get(this.values, value);
+    }
+
+    void putValue(String value, String mappedValue) {
+        put(this.values, value, mappedValue);
+    }
+
+    /**
+     * Drops all mappings, the counters are kept.
+     */
+    public void clear() {
+        this.names.clear();
+        this.values.clear();
+        this.size.set(0);
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MappingCache{hits=%d, misses=%d, hitRate=%.1f%%}", getHits(), getMisses(), getHitRate() * 100);
+    }
+
+    private String get(Map<String, String> map, String key) {
+        String mapped = map.get(key);
+        if (mapped == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return mapped;
+    }
+
+    private void put(Map<String, String> map, String key, String mapped) {
+        if (map.containsKey(key)) return;
+        if (this.size.get() >= this.maxSize) {
+            clear();
+        }
+
+        // unchanged names are stored as themselves, so no new strings are kept for them
+        if (map.putIfAbsent(key, mapped.equals(key) ? key : mapped) == null) {
+            this.size.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A view of a jar as if it was relocated, without writing the relocated jar. Entries are looked up by their
+ * relocated names and relocated only when they are read, so the cost depends on the classes that are actually used.
+ * <p>
+ * Opening the jar maps the names of all entries to build the reverse mapping, and merges the service files,
+ * reading an entry gives the same content it has in a jar written by {@link JarRelocator}.
+ * A relocated jar may be read by several threads at once.
+ */
+public final class RelocatedJar implements Closeable {
+
+    private static final String URL_PROTOCOL = "loader-relocated";
+    private static final String URL_SEPARATOR = "!/";
+
+    private final Path path;
+    private final String urlPath;
+    private final ZipReader jarIn;
+    private final RelocatingRemapper remapper;
+    private final ConstantPoolScanner scanner;
+    private final URLStreamHandler urlHandler = new Handler();
+
+    // relocated name -> original entry
+    private final Map<String, ZipReader.Entry> entries = new HashMap<>();
+    private final Map<String, byte[]> services;
+
+    public RelocatedJar(Path path, Collection<Relocation> relocations, MappingCache mappingCache) throws IOException {
+        this.path = path;
+        this.urlPath = path.toUri().getPath() + URL_SEPARATOR;
+        this.jarIn = new ZipReader(path);
+        this.remapper = new RelocatingRemapper(relocations, mappingCache);
+        this.scanner = new ConstantPoolScanner(relocations);
+
+        try {
+            ServicesResourceTransformer servicesTransformer = new ServicesResourceTransformer();
+            for (ZipReader.Entry entry : this.jarIn.getEntries()) {
+                if (JarRelocatorTask.isSkipped(entry)) {
+                    continue;
+                }
+
+                String name = entry.getName();
+                String mappedName = name.endsWith(".class")
+                    ? this.remapper.map(name.substring(0, name.indexOf('.'))) + ".class"
+                    : this.remapper.map(name);
+
+                if (servicesTransformer.shouldTransformResource(mappedName)) {
+                    try (InputStream entryIn = new ByteArrayInputStream(this.jarIn.readAllBytes(entry))) {
+                        servicesTransformer.processResource(mappedName, entryIn, relocations);
+                    }
+                } else {
+                    // like in a relocated jar, the first entry of a name wins
+                    this.entries.putIfAbsent(mappedName, entry);
+                }
+            }
+            this.services = servicesTransformer.getOutput();
+        } catch (IOException | RuntimeException e) {
+            this.jarIn.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public boolean contains(String name) {
+        return this.entries.containsKey(name) || this.services.containsKey(name);
+    }
+
+    /**
+     * Returns the name an entry has in the original jar.
+     *
+     * @param name the relocated name
+     * @return the original name, or {@code null} if there is no such entry or it was merged from several entries
+     */
+    public String getOriginalName(String name) {
+        ZipReader.Entry entry = this.entries.get(name);
+        return entry == null ? null : entry.getName();
+    }
+
+    /**
+     * @return the relocated names of all entries
+     */
+    public Set<String> getNames() {
+        Set<String> names = new HashSet<>(this.entries.keySet());
+        names.addAll(this.services.keySet());
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Reads an entry, relocating it if needed.
+     *
+     * @param name the relocated name
+     * @return the relocated content, or {@code null} if there is no such entry
+     */
+    public byte[] read(String name) throws IOException {
+        byte[] service = this.services.get(name);
+        if (service != null) {
+            return service.clone();
+        }
+
+        ZipReader.Entry entry = this.entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        byte[] bytes = this.jarIn.readAllBytes(entry);
+        if (entry.getName().equals("META-INF/MANIFEST.MF")) {
+            return JarRelocatorTask.removeSignatureDigests(bytes);
+        }
+        if (entry.getName().endsWith(".class")) {
+            byte[] relocated = JarRelocatorTask.relocateClass(this.remapper, this.scanner, entry.getName(), bytes);
+            return relocated == null ? bytes : relocated;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a URL that reads the relocated entry, e.g. for {@link ClassLoader#getResource(String)}.
+     *
+     * @param name the relocated name
+     * @return the URL, or {@code null} if there is no such entry
+     */
+    public URL getUrl(String name) {
+        if (!contains(name)) {
+            return null;
+        }
+
+        try {
+            return new URL(URL_PROTOCOL, null, -1, this.urlPath + name, this.urlHandler);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.jarIn.close();
+    }
+
+    private final class Handler extends URLStreamHandler {
+
+        @Override
+        protected URLConnection openConnection(URL url) {
+            String name = url.getFile().substring(RelocatedJar.this.urlPath.length());
+
+            return new URLConnection(url) {
+                private byte[] content;
+
+                @Override
+                public void connect() throws IOException {
+                    if (this.content == null) {
+                        this.content = read(name);
+                        if (this.content == null) {
+                            throw new FileNotFoundException(url.toString());
+                        }
+                        this.connected = true;
+                    }
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return new ByteArrayInputStream(this.content);
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    try {
+                        connect();
+                        return this.content.length;
+                    } catch (IOException e) {
+                        return -1;
+                    }
+                }
+            };
+        }
+    }
+}
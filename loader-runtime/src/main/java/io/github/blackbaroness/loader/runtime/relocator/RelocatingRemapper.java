@@ -21,28 +21,77 @@
 import lombok.Getter;
 import org.objectweb.asm.commons.Remapper;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Remaps class names and types using defined {@link Relocation} rules.
+ * <p>
+ * The rules are compiled into a prefix trie over their path form, so a name only
+ * has to be compared with the rules whose pattern it actually starts with.
  */
-@Getter
 final class RelocatingRemapper extends Remapper {
-    private static final Pattern CLASS_PATTERN = Pattern.compile("(\\[*)?L(.+);");
-
     // https://docs.oracle.com/javase/10/docs/specs/jar/jar.html#multi-release-jar-files
-    private static final Pattern VERSION_PATTERN = Pattern.compile("^(META-INF/versions/\\d+/)(.*)$");
+    private static final String VERSIONS_DIRECTORY = "META-INF/versions/";
 
+    @Getter
     private final Collection<Relocation> rules;
+    private final Relocation[] orderedRules;
+    private final MappingCache cache;
+    private final Node root = new Node();
 
     RelocatingRemapper(Collection<Relocation> rules) {
+        this(rules, null);
+    }
+
+    RelocatingRemapper(Collection<Relocation> rules, MappingCache cache) {
         this.rules = rules;
+        this.cache = cache;
+        this.orderedRules = rules.toArray(new Relocation[0]);
+        for (int i = 0; i < this.orderedRules.length; i++) {
+            Node node = this.root;
+            for (char c : this.orderedRules[i].getPathPattern().toCharArray()) {
+                node = node.getOrAddChild(c);
+            }
+            node.rules = Arrays.copyOf(node.rules, node.rules.length + 1);
+            node.rules[node.rules.length - 1] = i;
+        }
     }
 
     @Override
     public String map(String name) {
+        if (this.cache == null) {
+            return map0(name);
+        }
+
+        String mappedName = this.cache.getName(name);
+        if (mappedName == null) {
+            mappedName = map0(name);
+            this.cache.putName(name, mappedName);
+        }
+        return mappedName;
+    }
+
+    @Override
+    public Object mapValue(Object object) {
+        if (!(object instanceof String)) {
+            return super.mapValue(object);
+        }
+        if (this.cache == null) {
+            return mapValue0((String) object);
+        }
+
+        String value = (String) object;
+        String mappedValue = this.cache.getValue(value);
+        if (mappedValue == null) {
+            mappedValue = mapValue0(value);
+            this.cache.putValue(value, mappedValue);
+        }
+        return mappedValue;
+    }
+
+    private String map0(String name) {
         String relocatedName = relocate(name, false);
         if (relocatedName != null) {
             return relocatedName;
@@ -50,15 +99,12 @@ public String map(String name) {
         return super.map(name);
     }
 
-    @Override
-    public Object mapValue(Object object) {
-        if (object instanceof String) {
-            String relocatedName = relocate((String) object, true);
-            if (relocatedName != null) {
-                return relocatedName;
-            }
+    private String mapValue0(String value) {
+        String relocatedName = relocate(value, true);
+        if (relocatedName != null) {
+            return relocatedName;
         }
-        return super.mapValue(object);
+        return (String) super.mapValue(value);
     }
 
     private String relocate(String name, boolean isStringValue) {
@@ -66,21 +112,39 @@ private String relocate(String name, boolean isStringValue) {
         String suffix = "";
 
         if (isStringValue) {
-            Matcher m = CLASS_PATTERN.matcher(name);
-            if (m.matches()) {
-                prefix = m.group(1) + "L";
-                name = m.group(2);
+            // a type descriptor like "[[Lcom/example/Foo;"
+            int start = getDescriptorStart(name);
+            if (start != -1) {
+                prefix = name.substring(0, start + 1);
+                name = name.substring(start + 1, name.length() - 1);
                 suffix = ";";
             }
         }
 
-        Matcher m = VERSION_PATTERN.matcher(name);
-        if (m.matches()) {
-            prefix = m.group(1);
-            name = m.group(2);
+        int versionEnd = getVersionPrefixEnd(name);
+        if (versionEnd != -1) {
+            prefix = name.substring(0, versionEnd);
+            name = name.substring(versionEnd);
+        }
+
+        // rules whose pattern the name starts with, as a path or as a dotted class name, optionally after a slash or dot
+        BitSet candidates = collect(name, 0, false, null);
+        if (name.startsWith("/")) {
+            candidates = collect(name, 1, false, candidates);
+        }
+        if (isStringValue && name.indexOf('/') == -1) {
+            candidates = collect(name, 0, true, candidates);
+            if (name.startsWith(".")) {
+                candidates = collect(name, 1, true, candidates);
+            }
+        }
+        if (candidates == null) {
+            return null;
         }
 
-        for (Relocation r : this.rules) {
+        // the first matching rule wins, just like checking every rule in order
+        for (int i = candidates.nextSetBit(0); i != -1; i = candidates.nextSetBit(i + 1)) {
+            Relocation r = this.orderedRules[i];
             if (isStringValue && r.canRelocateClass(name)) {
                 return prefix + r.relocateClass(name) + suffix;
             } else if (r.canRelocatePath(name)) {
@@ -90,4 +154,110 @@ private String relocate(String name, boolean isStringValue) {
 
         return null;
     }
+
+    private BitSet collect(String name, int from, boolean dotted, BitSet candidates) {
+        Node node = this.root;
+        candidates = node.addRulesTo(candidates);
+        for (int i = from; i < name.length(); i++) {
+            char c = name.charAt(i);
+            node = node.getChild(dotted && c == '.' ? '/' : c);
+            if (node == null) {
+                break;
+            }
+            candidates = node.addRulesTo(candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Parses what {@code (\[*)?L(.+);} would match.
+     *
+     * @return the index of the 'L', or -1 if the value isn't a type descriptor
+     */
+    private static int getDescriptorStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) == '[') {
+            start++;
+        }
+
+        if (value.length() - start < 3 || value.charAt(start) != 'L' || value.charAt(value.length() - 1) != ';') {
+            return -1;
+        }
+
+        return containsLineTerminator(value, start + 1, value.length() - 1) ? -1 : start;
+    }
+
+    /**
+     * Parses what {@code ^(META-INF/versions/\d+/)(.*)$} would match.
+     *
+     * @return the length of the version prefix, or -1 if the name isn't in a versioned directory
+     */
+    private static int getVersionPrefixEnd(String name) {
+        if (!name.startsWith(VERSIONS_DIRECTORY)) {
+            return -1;
+        }
+
+        int end = VERSIONS_DIRECTORY.length();
+        while (end < name.length() && name.charAt(end) >= '0' && name.charAt(end) <= '9') {
+            end++;
+        }
+
+        if (end == VERSIONS_DIRECTORY.length() || end == name.length() || name.charAt(end) != '/') {
+            return -1;
+        }
+
+        return containsLineTerminator(name, end + 1, name.length()) ? -1 : end + 1;
+    }
+
+    // '.' in a regular expression doesn't match these
+    private static boolean containsLineTerminator(String value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int[] rules = new int[0];
+
+        Node getChild(char c) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == c) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+
+        Node getOrAddChild(char c) {
+            Node child = getChild(c);
+            if (child == null) {
+                child = new Node();
+                this.keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+                this.keys[this.keys.length - 1] = c;
+                this.children = Arrays.copyOf(this.children, this.children.length + 1);
+                this.children[this.children.length - 1] = child;
+            }
+            return child;
+        }
+
+        BitSet addRulesTo(BitSet candidates) {
+            if (this.rules.length == 0) {
+                return candidates;
+            }
+
+            if (candidates == null) {
+                candidates = new BitSet();
+            }
+            for (int rule : this.rules) {
+                candidates.set(rule);
+            }
+            return candidates;
+        }
+    }
 }
@@ -18,10 +18,7 @@
  */
 package io.github.blackbaroness.loader.runtime.relocator;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * A relocation rule
@@ -32,8 +29,8 @@ public final class Relocation {
     private final String pathPattern;
     private final String relocatedPathPattern;
 
-    private final Set<String> includes;
-    private final Set<String> excludes;
+    private final List<SelectorUtils.CompiledPattern> includes;
+    private final List<SelectorUtils.CompiledPattern> excludes;
 
     /**
      * Creates a new relocation
@@ -49,19 +46,8 @@ public Relocation(String pattern, String relocatedPattern, Collection<String> in
         this.relocatedPattern = relocatedPattern.replace('/', '.');
         this.relocatedPathPattern = relocatedPattern.replace('.', '/');
 
-        if (includes != null && !includes.isEmpty()) {
-            this.includes = normalizePatterns(includes);
-            this.includes.addAll(includes);
-        } else {
-            this.includes = null;
-        }
-
-        if (excludes != null && !excludes.isEmpty()) {
-            this.excludes = normalizePatterns(excludes);
-            this.excludes.addAll(excludes);
-        } else {
-            this.excludes = null;
-        }
+        this.includes = compilePatterns(includes);
+        this.excludes = compilePatterns(excludes);
     }
 
     /**
@@ -74,6 +60,21 @@ public Relocation(String pattern, String relocatedPattern) {
         this(pattern, relocatedPattern, Collections.emptyList(), Collections.emptyList());
     }
 
+    private static List<SelectorUtils.CompiledPattern> compilePatterns(Collection<String> patterns) {
+        if (patterns == null || patterns.isEmpty()) {
+            return null;
+        }
+
+        Set<String> normalized = normalizePatterns(patterns);
+        normalized.addAll(patterns);
+
+        List<SelectorUtils.CompiledPattern> compiled = new ArrayList<>(normalized.size());
+        for (String pattern : normalized) {
+            compiled.add(SelectorUtils.compile(pattern, true));
+        }
+        return compiled;
+    }
+
     private static Set<String> normalizePatterns(Collection<String> patterns) {
         Set<String> normalized = new LinkedHashSet<>();
         for (String pattern : patterns) {
@@ -92,8 +93,8 @@ private boolean isIncluded(String path) {
             return true;
         }
 
-        for (String include : this.includes) {
-            if (SelectorUtils.matchPath(include, path, true)) {
+        for (SelectorUtils.CompiledPattern include : this.includes) {
+            if (include.matches(path)) {
                 return true;
             }
         }
@@ -105,35 +106,71 @@ private boolean isExcluded(String path) {
             return false;
         }
 
-        for (String exclude : this.excludes) {
-            if (SelectorUtils.matchPath(exclude, path, true)) {
+        for (SelectorUtils.CompiledPattern exclude : this.excludes) {
+            if (exclude.matches(path)) {
                 return true;
             }
         }
         return false;
     }
 
+    String getPattern() {
+        return this.pattern;
+    }
+
+    String getPathPattern() {
+        return this.pathPattern;
+    }
+
     boolean canRelocatePath(String path) {
+        // the pattern never contains a dot, so it can be checked before ".class" is cut off
+        if (!path.startsWith(this.pathPattern) && !(path.startsWith("/") && path.startsWith(this.pathPattern, 1))) {
+            return false;
+        }
+
+        if (this.includes == null && this.excludes == null) {
+            return true;
+        }
+
         if (path.endsWith(".class")) {
             path = path.substring(0, path.length() - 6);
         }
 
-        if (!isIncluded(path) || isExcluded(path)) {
+        return isIncluded(path) && !isExcluded(path);
+    }
+
+    boolean canRelocateClass(String clazz) {
+        if (clazz.indexOf('/') != -1) {
             return false;
         }
 
-        return path.startsWith(this.pathPattern) || path.startsWith("/" + this.pathPattern);
-    }
+        // without slashes, the path form starts with the path pattern exactly when the class starts with the dotted one
+        if (!clazz.startsWith(this.pattern) && !(clazz.startsWith(".") && clazz.startsWith(this.pattern, 1))) {
+            return false;
+        }
 
-    boolean canRelocateClass(String clazz) {
-        return clazz.indexOf('/') == -1 && canRelocatePath(clazz.replace('.', '/'));
+        if (this.includes == null && this.excludes == null) {
+            return true;
+        }
+
+        String path = clazz.replace('.', '/');
+        return isIncluded(path) && !isExcluded(path);
     }
 
     String relocatePath(String path) {
-        return path.replaceFirst(this.pathPattern, this.relocatedPathPattern);
+        return replaceFirst(path, this.pathPattern, this.relocatedPathPattern);
     }
 
     String relocateClass(String clazz) {
-        return clazz.replaceFirst(this.pattern, this.relocatedPattern);
+        return replaceFirst(clazz, this.pattern, this.relocatedPattern);
+    }
+
+    private static String replaceFirst(String string, String target, String replacement) {
+        int index = string.indexOf(target);
+        if (index == -1) {
+            return string;
+        }
+
+        return string.substring(0, index) + replacement + string.substring(index + target.length());
     }
 }
@@ -21,7 +21,6 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.jar.JarOutputStream;
 
 interface ResourceTransformer {
 
@@ -29,6 +28,6 @@ interface ResourceTransformer {
 
     void processResource(String resource, InputStream inputStream, Collection<Relocation> rules) throws IOException;
 
-    void writeOutput(JarOutputStream jarOutputStream) throws IOException;
+    void writeOutput(ZipWriter zipWriter) throws IOException;
 
 }
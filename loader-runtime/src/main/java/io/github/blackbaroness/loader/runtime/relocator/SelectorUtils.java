@@ -22,10 +22,13 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  * This is a stripped down version of org.codehaus.plexus.util.SelectorUtils for
  * use in {@link Relocation}.
+ * <p>
+ * Patterns are compiled once into {@link CompiledPattern}s, so they are not parsed again for every path.
  *
  * @author Arnout J. Kuiper <a href="mailto:ajkuiper@wxs.nl">ajkuiper@wxs.nl</a>
  * @author Magesh Umasankar
@@ -54,19 +57,20 @@ private static boolean separatorPatternStartSlashMismatch(String pattern, String
         return str.startsWith(separator) != pattern.startsWith(separator);
     }
 
-    public static boolean matchPath(String pattern, String str, boolean isCaseSensitive) {
-        return matchPath(pattern, str, File.separator, isCaseSensitive);
+    static CompiledPattern compile(String pattern, boolean isCaseSensitive) {
+        return compile(pattern, File.separator, isCaseSensitive);
     }
 
-    private static boolean matchPath(String pattern, String str, String separator, boolean isCaseSensitive) {
+    private static CompiledPattern compile(String pattern, String separator, boolean isCaseSensitive) {
         if (isRegexPrefixedPattern(pattern)) {
             pattern = pattern.substring(REGEX_HANDLER_PREFIX.length(), pattern.length() - PATTERN_HANDLER_SUFFIX.length());
-            return str.matches(pattern);
+            Pattern regex = Pattern.compile(pattern);
+            return str -> regex.matcher(str).matches();
         } else {
             if (isAntPrefixedPattern(pattern)) {
                 pattern = pattern.substring(ANT_HANDLER_PREFIX.length(), pattern.length() - PATTERN_HANDLER_SUFFIX.length());
             }
-            return matchAntPathPattern(pattern, str, separator, isCaseSensitive);
+            return new AntPattern(pattern, separator, isCaseSensitive);
         }
     }
 
@@ -75,16 +79,6 @@ private static boolean isRegexPrefixedPattern(String pattern) {
             && pattern.startsWith(REGEX_HANDLER_PREFIX) && pattern.endsWith(PATTERN_HANDLER_SUFFIX);
     }
 
-    private static boolean matchAntPathPattern(String pattern, String str, String separator, boolean isCaseSensitive) {
-        if (separatorPatternStartSlashMismatch(pattern, str, separator)) {
-            return false;
-        }
-        String[] patDirs = tokenizePathToString(pattern, separator);
-        String[] strDirs = tokenizePathToString(str, separator);
-        return matchAntPathPattern(patDirs, strDirs, isCaseSensitive);
-
-    }
-
     private static boolean matchAntPathPattern(String[] patDirs, String[] strDirs, boolean isCaseSensitive) {
         int patIdxStart = 0;
         int patIdxEnd = patDirs.length - 1;
@@ -340,4 +334,54 @@ private static String[] tokenizePathToString(String path, String separator) {
         }
         return ret.toArray(new String[ret.size()]);
     }
+
+    /**
+     * A pattern parsed once, to be matched against many paths.
+     */
+    @FunctionalInterface
+    interface CompiledPattern {
+        boolean matches(String path);
+    }
+
+    private static final class AntPattern implements CompiledPattern {
+        private final String pattern;
+        private final String separator;
+        private final boolean isCaseSensitive;
+        private final String[] patDirs;
+        // the first directory of the pattern if it has no wildcards, every matching path must start with it
+        private final String literalPrefix;
+
+        AntPattern(String pattern, String separator, boolean isCaseSensitive) {
+            this.pattern = pattern;
+            this.separator = separator;
+            this.isCaseSensitive = isCaseSensitive;
+            this.patDirs = tokenizePathToString(pattern, separator);
+
+            String first = this.patDirs.length == 0 ? null : this.patDirs[0];
+            this.literalPrefix = first != null && isCaseSensitive && first.indexOf('*') == -1 && first.indexOf('?') == -1 ? first : null;
+        }
+
+        @Override
+        public boolean matches(String str) {
+            if (separatorPatternStartSlashMismatch(this.pattern, str, this.separator)) {
+                return false;
+            }
+            if (this.literalPrefix != null && !startsWithDirectory(str)) {
+                return false;
+            }
+            String[] strDirs = tokenizePathToString(str, this.separator);
+            return matchAntPathPattern(this.patDirs, strDirs, this.isCaseSensitive);
+        }
+
+        private boolean startsWithDirectory(String str) {
+            int start = 0;
+            while (start < str.length() && this.separator.indexOf(str.charAt(start)) != -1) {
+                start++;
+            }
+
+            int end = start + this.literalPrefix.length();
+            return str.startsWith(this.literalPrefix, start)
+                && (end == str.length() || this.separator.indexOf(str.charAt(end)) != -1);
+        }
+    }
 }
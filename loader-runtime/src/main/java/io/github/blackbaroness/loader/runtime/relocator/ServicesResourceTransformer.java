@@ -24,14 +24,14 @@
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 
 class ServicesResourceTransformer implements ResourceTransformer {
     private static final String SERVICES_PATH = "META-INF/services/";
 
-    private final Map<String, Set<String>> serviceEntries = new LinkedHashMap<>();
+    // sorted, so the service files don't depend on the order they were found in. The providers of a service
+    // keep their order, the first one is the one a ServiceLoader finds first
+    private final Map<String, Set<String>> serviceEntries = new TreeMap<>();
 
     private static String relocateIfPossible(String line, Collection<Relocation> rules) {
         for (Relocation rule : rules) {
@@ -65,21 +65,29 @@ public void processResource(String resource, InputStream inputStream, Collection
     }
 
     @Override
-    public void writeOutput(JarOutputStream jarOutputStream) throws IOException {
-        this.serviceEntries.values().removeIf(Set::isEmpty);
-        if (this.serviceEntries.isEmpty()) {
-            return;
+    public void writeOutput(ZipWriter zipWriter) throws IOException {
+        for (Map.Entry<String, byte[]> entry : getOutput().entrySet()) {
+            zipWriter.writeEntry(entry.getKey(), entry.getValue());
         }
+    }
 
+    /**
+     * @return the content of every merged service file, by its relocated name
+     */
+    Map<String, byte[]> getOutput() {
+        Map<String, byte[]> output = new TreeMap<>();
         for (Map.Entry<String, Set<String>> entry : this.serviceEntries.entrySet()) {
-            jarOutputStream.putNextEntry(new JarEntry(entry.getKey()));
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
 
             StringBuilder builder = new StringBuilder();
             for (String line : entry.getValue()) {
                 builder.append(line).append('\n');
             }
-            jarOutputStream.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+            output.put(entry.getKey(), builder.toString().getBytes(StandardCharsets.UTF_8));
         }
+        return output;
     }
 
 }
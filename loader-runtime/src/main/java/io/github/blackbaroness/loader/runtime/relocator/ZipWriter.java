@@ -0,0 +1,268 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip writer that, unlike {@link java.util.zip.ZipOutputStream}, can copy an entry of a {@link ZipReader}
+ * as it is: the compressed bytes, CRC and sizes are taken over without inflating and deflating them again.
+ * <p>
+ * New entries are compressed in memory, so their sizes are known before the local header is written
+ * and no data descriptors are needed. With {@link Deflater#NO_COMPRESSION}, every entry is stored,
+ * including copied entries that were compressed in the original.
+ * <p>
+ * Every entry gets the same fixed modification time, so the same input always produces a byte-identical output.
+ */
+final class ZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+    private static final int UTF8_FLAG = 1 << 11;
+
+    /**
+     * 1980-02-01 00:00:00, the same time Gradle uses for reproducible archives, the first valid day of the DOS epoch
+     * can turn into a time before 1980 when converted between time zones.
+     */
+    private static final int FIXED_DOS_TIME = (2 << 21) | (1 << 16);
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final CountingOutputStream out;
+    private final Deflater deflater;
+    private final boolean storeOnly;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] buffer = new byte[8192];
+    private long count;
+
+    ZipWriter(OutputStream out, int level) {
+        this.out = new CountingOutputStream(out);
+        this.deflater = new Deflater(level, true);
+        this.storeOnly = level == Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * Writes a new entry, compressing its content unless that doesn't make it smaller.
+     */
+    void writeEntry(String name, byte[] content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        byte[] compressed = this.storeOnly ? content : deflate(content);
+        if (compressed.length < content.length) {
+            writeEntry(name, 0, ZipEntry.DEFLATED, crc.getValue(), compressed, content.length);
+        } else {
+            writeEntry(name, 0, ZipEntry.STORED, crc.getValue(), content, content.length);
+        }
+    }
+
+    void writeDirectory(String name) throws IOException {
+        writeEntry(name, 0, ZipEntry.STORED, 0, new byte[0], 0);
+    }
+
+    /**
+     * Copies an entry of the reader under a possibly different name, keeping its compressed bytes.
+     */
+    void copyEntry(String name, ZipReader reader, ZipReader.Entry entry) throws IOException {
+        if (this.storeOnly && entry.getMethod() != ZipEntry.STORED) {
+            writeEntry(name, reader.readAllBytes(entry));
+            return;
+        }
+
+        byte[] nameBytes = checkName(name);
+        if (entry.getCompressedSize() >= ZIP64_MAGIC || entry.getSize() >= ZIP64_MAGIC) {
+            throw new ZipException("Entries larger than 4 GB are not supported: " + entry.getName());
+        }
+
+        // the sizes are known now, so the data descriptor of the original is not needed
+        int flags = entry.getFlags() & ~DATA_DESCRIPTOR_FLAG;
+        long offset = writeLocalHeader(nameBytes, flags, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        reader.copyRaw(entry, this.out);
+        writeCentralHeader(nameBytes, flags, entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), offset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long directoryOffset = this.out.getCount();
+            this.centralDirectory.writeTo(this.out);
+            long directorySize = this.out.getCount() - directoryOffset;
+
+            boolean zip64 = this.count >= ZIP64_MAGIC_COUNT || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC;
+            if (zip64) {
+                long zip64EndOffset = this.out.getCount();
+                ByteBuffer zip64End = newBuffer(56);
+                zip64End.putInt(ZIP64_END_SIGNATURE);
+                zip64End.putLong(44);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putShort((short) ZIP64_VERSION);
+                zip64End.putInt(0);
+                zip64End.putInt(0);
+                zip64End.putLong(this.count);
+                zip64End.putLong(this.count);
+                zip64End.putLong(directorySize);
+                zip64End.putLong(directoryOffset);
+                write(zip64End);
+
+                ByteBuffer locator = newBuffer(20);
+                locator.putInt(ZIP64_LOCATOR_SIGNATURE);
+                locator.putInt(0);
+                locator.putLong(zip64EndOffset);
+                locator.putInt(1);
+                write(locator);
+            }
+
+            ByteBuffer end = newBuffer(22);
+            end.putInt(END_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) Math.min(this.count, ZIP64_MAGIC_COUNT));
+            end.putShort((short) Math.min(this.count, ZIP64_MAGIC_COUNT));
+            end.putInt((int) Math.min(directorySize, ZIP64_MAGIC));
+            end.putInt((int) Math.min(directoryOffset, ZIP64_MAGIC));
+            end.putShort((short) 0);
+            write(end);
+        } finally {
+            this.deflater.end();
+            this.out.close();
+        }
+    }
+
+    private void writeEntry(String name, int flags, int method, long crc, byte[] data, long size) throws IOException {
+        byte[] nameBytes = checkName(name);
+        long offset = writeLocalHeader(nameBytes, flags, method, crc, data.length, size);
+        this.out.write(data);
+        writeCentralHeader(nameBytes, flags, method, crc, data.length, size, offset);
+    }
+
+    private byte[] checkName(String name) throws ZipException {
+        if (!this.names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new ZipException("Entry name too long: " + name);
+        }
+        return nameBytes;
+    }
+
+    private long writeLocalHeader(byte[] name, int flags, int method, long crc, long compressedSize, long size) throws IOException {
+        long offset = this.out.getCount();
+
+        ByteBuffer header = newBuffer(30 + name.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION);
+        header.putShort((short) (flags | UTF8_FLAG));
+        header.putShort((short) method);
+        header.putInt(FIXED_DOS_TIME);
+        header.putInt((int) crc);
+        header.putInt((int) compressedSize);
+        header.putInt((int) size);
+        header.putShort((short) name.length);
+        header.putShort((short) 0);
+        header.put(name);
+        write(header);
+
+        return offset;
+    }
+
+    private void writeCentralHeader(byte[] name, int flags, int method, long crc, long compressedSize, long size, long offset) {
+        // only the offset can outgrow the header, entries themselves are limited to 4 GB
+        boolean zip64 = offset >= ZIP64_MAGIC;
+
+        ByteBuffer header = newBuffer(46 + name.length + (zip64 ? 12 : 0));
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+        header.putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+        header.putShort((short) (flags | UTF8_FLAG));
+        header.putShort((short) method);
+        header.putInt(FIXED_DOS_TIME);
+        header.putInt((int) crc);
+        header.putInt((int) compressedSize);
+        header.putInt((int) size);
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 12 : 0));
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) Math.min(offset, ZIP64_MAGIC));
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 8);
+            header.putLong(offset);
+        }
+
+        this.centralDirectory.write(header.array(), 0, header.position());
+        this.count++;
+    }
+
+    private byte[] deflate(byte[] content) {
+        this.deflater.reset();
+        this.deflater.setInput(content);
+        this.deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+        while (!this.deflater.finished()) {
+            int n = this.deflater.deflate(this.buffer);
+            compressed.write(this.buffer, 0, n);
+        }
+        return compressed.toByteArray();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        this.out.write(buffer.array(), 0, buffer.position());
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
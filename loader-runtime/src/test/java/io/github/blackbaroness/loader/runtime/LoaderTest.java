@@ -0,0 +1,90 @@
+package io.github.blackbaroness.loader.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoaderTest {
+
+    private static final String UNRELOCATED_MANIFEST = "{\"repositories\": [], \"dependencies\": [], \"relocations\": {}}";
+    private static final String RELOCATED_MANIFEST = "{\"repositories\": [], \"dependencies\": [], \"relocations\": {\"com.example\": \"shaded.example\"}}";
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void compressionOnlyChangesNamesOfRelocatedJars() {
+        assertEquals(getRelocationsHash(UNRELOCATED_MANIFEST, OutputCompression.MAX), getRelocationsHash(UNRELOCATED_MANIFEST, OutputCompression.STORED));
+        assertNotEquals(getRelocationsHash(RELOCATED_MANIFEST, OutputCompression.MAX), getRelocationsHash(RELOCATED_MANIFEST, OutputCompression.STORED));
+    }
+
+    @Test
+    void failedRelocationLeavesNoPartialFiles() throws IOException {
+        final TestRepository repository = new TestRepository(temp.resolve("repository"));
+        final Path brokenJar = repository.addFile("broken", "not a jar".getBytes(StandardCharsets.UTF_8));
+        repository.relocate("com.example", "shaded.example");
+        final Path directory = temp.resolve("libraries");
+        final Loader loader = new LoaderBuilder(directory, repository.manifestJson("broken")).build();
+
+        assertThrows(Exception.class, loader::prepare);
+        assertThrows(Exception.class, () -> loader.relocateOwnJar(brokenJar));
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertEquals(List.of(), files.filter(file -> file.getFileName().toString().endsWith(".part")).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void unchangedOwnJarIsNotHashedAgain() throws IOException {
+        final Path jar = temp.resolve("plugin.jar");
+        final byte[] content = new byte[4096];
+        new Random(1).nextBytes(content);
+        Files.write(jar, content);
+        final Path directory = temp.resolve("libraries");
+
+        final Path relocated = new LoaderBuilder(directory, UNRELOCATED_MANIFEST).build().relocateOwnJar(jar);
+        assertTrue(relocated.getFileName().toString().startsWith(LoaderUtils.sha1(jar)));
+
+        // change the jar without changing its size, file key or modification time, only hashing can notice it
+        final FileTime modified = Files.getLastModifiedTime(jar);
+        content[0]++;
+        Files.write(jar, content, StandardOpenOption.WRITE);
+        Files.setLastModifiedTime(jar, modified);
+
+        assertEquals(relocated, new LoaderBuilder(directory, UNRELOCATED_MANIFEST).build().relocateOwnJar(jar), "an unchanged index must be trusted without hashing");
+
+        final Path rehashed = new LoaderBuilder(directory, UNRELOCATED_MANIFEST).setParanoidVerification(true).build().relocateOwnJar(jar);
+        assertTrue(rehashed.getFileName().toString().startsWith(LoaderUtils.sha1(jar)), "paranoid verification must hash the jar again");
+    }
+
+    @Test
+    void lazyRelocationRefusesPlainClassLoader() {
+        final String manifestJson = "{\"repositories\": [], \"dependencies\": [], \"relocations\": {\"com.example\": \"shaded.example\"}, \"lazyRelocation\": true}";
+        final Loader loader = new LoaderBuilder(temp.resolve("libraries"), manifestJson).build();
+        loader.prepare();
+
+        assertThrows(IllegalStateException.class, () -> loader.loadToNewClassLoader(getClass().getClassLoader(), List.of()));
+    }
+
+    private String getRelocationsHash(String manifestJson, OutputCompression outputCompression) {
+        return new LoaderBuilder(temp.resolve("libraries"), manifestJson)
+            .setOutputCompression(outputCompression)
+            .build()
+            .getManifest()
+            .getRelocationsHash();
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.blackbaroness.loader.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedStoreTest {
+
+    private static final int JAR_SIZE = 64 * 1024;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void cleanupKeepsEntriesOfConcurrentlyPreparingOwner() throws Exception {
+        final TestRepository repository = new TestRepository(temp.resolve("repository"));
+        repository.addJar("a", JAR_SIZE, 1);
+        repository.addJar("b1", JAR_SIZE, 2);
+        final Path mirroredB2 = repository.addJar("b2", JAR_SIZE, 3);
+        final Path store = temp.resolve("store");
+
+        // owner b has placed b1 and is still fetching b2 while owner a prepares and cleans up the store
+        final CountDownLatch bFetching = new CountDownLatch(1);
+        final CountDownLatch aDone = new CountDownLatch(1);
+        final Path[] b1Sidecar = new Path[1];
+        final Loader b = new LoaderBuilder(temp.resolve("owner-b"), repository.manifestJson("b1", "b2"))
+            .setSharedStoreDirectory(store)
+            .addLocalRepository(dependency -> {
+                if (!dependency.getArtifactId().equals("b2")) return temp.resolve("missing");
+
+                awaitFile(b1Sidecar[0]);
+                bFetching.countDown();
+                await(aDone);
+                return mirroredB2;
+            })
+            .build();
+        b1Sidecar[0] = getDependency(b, "b1").getJarSha1File();
+
+        final CompletableFuture<Void> bPreparation = CompletableFuture.runAsync(b::prepare);
+        await(bFetching);
+
+        final Loader a = new LoaderBuilder(temp.resolve("owner-a"), repository.manifestJson("a"))
+            .setSharedStoreDirectory(store)
+            .build();
+        a.prepare();
+        aDone.countDown();
+        bPreparation.get(30, TimeUnit.SECONDS);
+
+        for (final Manifest.Dependency dependency : b.getManifest().getDependencies()) {
+            assertTrue(Files.exists(dependency.getJarFile()), dependency + " of the owner that was still preparing was removed");
+            assertEquals(dependency.getSha1(), LoaderUtils.sha1(dependency.getJarFile()));
+        }
+        assertTrue(Files.exists(getDependency(a, "a").getJarFile()));
+    }
+
+    @Test
+    void cleanupSkipsEntriesBeingWritten() throws IOException {
+        final Path directory = temp.resolve("store");
+        final SharedStore store = new SharedStore(directory, temp.resolve("owner"), null);
+        store.register(Collections.emptyList());
+
+        final Path entry = directory.resolve("com.example/library/1.0/entry.jar");
+        final Path sidecar = entry.resolveSibling("entry.jar.sha1");
+        final Path part = entry.resolveSibling("entry.jar123.part");
+        Files.createDirectories(entry.getParent());
+        Files.write(entry, new byte[1]);
+        Files.write(sidecar, new byte[1]);
+        Files.write(part, new byte[1]);
+
+        store.withEntryLock(entry, () -> {
+            store.removeUnreferencedFiles();
+            return null;
+        });
+        assertTrue(Files.exists(entry), "a locked entry must be kept");
+        assertTrue(Files.exists(sidecar), "the sidecar of a locked entry must be kept");
+        assertTrue(Files.exists(part), "a fresh partial file must be kept");
+
+        store.removeUnreferencedFiles();
+        assertFalse(Files.exists(entry));
+        assertFalse(Files.exists(sidecar));
+        assertTrue(Files.exists(part), "a fresh partial file must be kept");
+
+        Files.setLastModifiedTime(part, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        store.removeUnreferencedFiles();
+        assertFalse(Files.exists(part), "an abandoned partial file must be removed");
+    }
+
+    @Test
+    void entryLocksAreKeyedByPathAndRemovedAfterUse() throws IOException {
+        final Path directory = temp.resolve("store");
+        final SharedStore store = new SharedStore(directory, temp.resolve("owner"), null);
+        store.register(Collections.emptyList());
+
+        // entries of different artifacts may have the same file name
+        final Path locked = directory.resolve("com.example/a/1.0/entry.jar");
+        final Path unlocked = directory.resolve("com.example/b/1.0/entry.jar");
+        for (final Path entry : new Path[]{locked, unlocked}) {
+            Files.createDirectories(entry.getParent());
+            Files.write(entry, new byte[1]);
+        }
+
+        store.withEntryLock(locked, () -> {
+            store.removeUnreferencedFiles();
+            return null;
+        });
+        assertTrue(Files.exists(locked), "a locked entry must be kept");
+        assertFalse(Files.exists(unlocked), "an entry with the same name in another directory is not locked");
+
+        store.withEntryLock(locked, () -> null);
+        try (Stream<Path> locks = Files.list(directory.resolve(".loader/locks"))) {
+            assertEquals(0, locks.count(), "lock files must be removed once released");
+        }
+    }
+
+    private static Manifest.Dependency getDependency(Loader loader, String artifactId) {
+        return loader.getManifest().getDependencies().stream()
+            .filter(dependency -> dependency.getArtifactId().equals(artifactId))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private static void awaitFile(Path file) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!Files.exists(file)) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Timed out waiting for " + file);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(30, TimeUnit.SECONDS)) throw new IllegalStateException("Timed out");
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
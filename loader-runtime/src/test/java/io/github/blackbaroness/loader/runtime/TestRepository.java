@@ -0,0 +1,89 @@
+package io.github.blackbaroness.loader.runtime;
+
+import com.grack.nanojson.JsonArray;
+import com.grack.nanojson.JsonObject;
+import com.grack.nanojson.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A {@code file:} repository in a temporary directory, with a manifest that lists the jars added to it.
+ */
+final class TestRepository {
+
+    private final Path directory;
+    private final Map<String, JsonObject> dependencies = new HashMap<>();
+    private final JsonObject relocations = new JsonObject();
+
+    TestRepository(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Adds a jar with an entry of random bytes.
+     *
+     * @return the jar in the repository
+     */
+    Path addJar(String artifactId, int size, long seed) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(jar)) {
+            zipOut.putNextEntry(new ZipEntry("data.bin"));
+            zipOut.write(content);
+            zipOut.closeEntry();
+        }
+        return addFile(artifactId, jar.toByteArray());
+    }
+
+    /**
+     * Adds a file as the jar of an artifact, it doesn't have to be a valid jar.
+     *
+     * @return the file in the repository
+     */
+    Path addFile(String artifactId, byte[] content) throws IOException {
+        final Path jar = directory.resolve("com/example/" + artifactId + "/1.0/" + artifactId + "-1.0.jar");
+        Files.createDirectories(jar.getParent());
+        Files.write(jar, content);
+
+        final JsonObject dependency = new JsonObject();
+        dependency.put("group", "com.example");
+        dependency.put("artifact", artifactId);
+        dependency.put("version", "1.0");
+        dependency.put("sha1", LoaderUtils.sha1(jar));
+        dependencies.put(artifactId, dependency);
+        return jar;
+    }
+
+    void relocate(String pattern, String target) {
+        relocations.put(pattern, target);
+    }
+
+    /**
+     * @return a manifest with the given jars, which must have been added before
+     */
+    String manifestJson(String... artifactIds) {
+        final JsonArray dependencies = new JsonArray();
+        for (final String artifactId : artifactIds) {
+            dependencies.add(this.dependencies.get(artifactId));
+        }
+
+        final JsonArray repositories = new JsonArray();
+        repositories.add(directory.toUri().toString());
+
+        final JsonObject root = new JsonObject();
+        root.put("repositories", repositories);
+        root.put("dependencies", dependencies);
+        root.put("relocations", relocations);
+        return JsonWriter.string(root);
+    }
+}
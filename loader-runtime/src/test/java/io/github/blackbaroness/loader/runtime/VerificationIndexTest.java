@@ -0,0 +1,58 @@
+package io.github.blackbaroness.loader.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class VerificationIndexTest {
+
+    private static final int JAR_SIZE = 64 * 1024;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void startWithUnchangedIndexSkipsHashing() throws IOException {
+        final TestRepository repository = new TestRepository(temp.resolve("repository"));
+        final Path mirroredJar = repository.addJar("library", JAR_SIZE, 1);
+        final String expectedSha1 = LoaderUtils.sha1(mirroredJar);
+        final String manifestJson = repository.manifestJson("library");
+        final Path directory = temp.resolve("libraries");
+
+        prepare(directory, manifestJson, false);
+        final Path jar = new LoaderBuilder(directory, manifestJson).build().getManifest().getDependencies().iterator().next().getJarFile();
+        assertEquals(expectedSha1, LoaderUtils.sha1(jar));
+
+        // the library may be a hard link to the mirror, the mirror gets its own copy before the library is touched
+        final byte[] original = Files.readAllBytes(mirroredJar);
+        Files.delete(mirroredJar);
+        Files.write(mirroredJar, original);
+
+        // damage the library without changing its size, file key or modification time,
+        // only hashing can tell it apart from the verified one
+        final FileTime modified = Files.getLastModifiedTime(jar);
+        Files.write(jar, new byte[original.length], StandardOpenOption.WRITE);
+        Files.setLastModifiedTime(jar, modified);
+
+        prepare(directory, manifestJson, false);
+        assertNotEquals(expectedSha1, LoaderUtils.sha1(jar), "an unchanged index must be trusted without hashing");
+
+        prepare(directory, manifestJson, true);
+        assertEquals(expectedSha1, LoaderUtils.sha1(jar), "paranoid verification must hash and repair the library");
+    }
+
+    private static void prepare(Path directory, String manifestJson, boolean paranoidVerification) {
+        new LoaderBuilder(directory, manifestJson)
+            .setParanoidVerification(paranoidVerification)
+            .build()
+            .prepare();
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class JarRelocatorTaskTest {
+
+    @Test
+    void parallelOutputEqualsSequentialOutput() throws Exception {
+        Path jar = Paths.get(ClassReader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<Relocation> relocations = List.of(new Relocation("org.objectweb.asm", "x.asm"));
+
+        byte[] sequential = relocate(jar, relocations, 1);
+        byte[] parallel = relocate(jar, relocations, 4);
+
+        assertArrayEquals(sequential, parallel);
+    }
+
+    private static byte[] relocate(Path jar, List<Relocation> relocations, int parallelism) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (ZipWriter jarOut = new ZipWriter(output, Deflater.BEST_COMPRESSION); ZipReader jarIn = new ZipReader(jar)) {
+                new JarRelocatorTask(new RelocatingRemapper(relocations), jarOut, jarIn, List.of(new ServicesResourceTransformer()), pool).processEntries();
+            }
+            return output.toByteArray();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MappingCacheTest {
+
+    @Test
+    void repeatedPutsDoNotFillTheCache() {
+        MappingCache cache = new MappingCache(2);
+        for (int i = 0; i < 10; i++) {
+            cache.putName("a/A", "x/A");
+        }
+        cache.putValue("a.A", "x.A");
+
+        assertEquals("x/A", cache.getName("a/A"));
+        assertEquals("x.A", cache.getValue("a.A"));
+
+        // the third distinct mapping doesn't fit anymore
+        cache.putName("a/B", "x/B");
+        assertNull(cache.getName("a/A"));
+        assertEquals("x/B", cache.getName("a/B"));
+    }
+}
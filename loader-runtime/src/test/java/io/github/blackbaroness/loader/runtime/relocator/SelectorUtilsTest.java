@@ -0,0 +1,76 @@
+package io.github.blackbaroness.loader.runtime.relocator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SelectorUtilsTest {
+
+    private static final List<String> PATTERNS = List.of(
+        "com/google/gson/*", "com/google/gson", "com/google/gson/**", "com/**/Gson", "**/internal/**",
+        "com/google/gson/?son", "com/google/*/Gson", "**", "*", "?", "", "/", "/com/**", "com//google/**",
+        "%ant[com/**]", "%ant[]", "%regex[com/google/.*]", "%regex[.*Gson.*]", "%regex[[a-z]+/.*]", "%regex[]"
+    );
+
+    private static final List<String> PATHS = List.of(
+        "", "/", "com", "/com/google", "com/google", "com//google/gson/Gson", "com/google/gson",
+        "com/google/gson/Gson", "com/google/gson/GSON", "com/google/gson/internal/Foo$1", "org/google/gson/Gson"
+    );
+
+    private static final String[] PATTERN_ATOMS = {"com", "google", "gson", "a", "b", "*", "**", "?", "co*", "*son", "g?on", "Gson", "x*y", "", "/", "//", ".", "Foo$1", "**/**"};
+    private static final String[] PATH_ATOMS = {"com", "google", "gson", "a", "b", "Gson", "gsonx", "goo", "co", "son", "xy", "xaby", "Foo$1", "", "/", "."};
+
+    @Test
+    void compiledPatternsMatchLikeTheReference() {
+        assertSameMatches(PATTERNS, PATHS);
+    }
+
+    @Test
+    void randomCompiledPatternsMatchLikeTheReference() {
+        Random random = new Random(42);
+
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            patterns.add(randomPath(random, PATTERN_ATOMS, 1 + random.nextInt(5), random.nextBoolean()));
+        }
+
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            paths.add(randomPath(random, PATH_ATOMS, random.nextInt(6), random.nextInt(4) == 0));
+        }
+
+        assertSameMatches(patterns, paths);
+    }
+
+    private static void assertSameMatches(List<String> patterns, List<String> paths) {
+        for (String pattern : patterns) {
+            for (boolean isCaseSensitive : new boolean[]{true, false}) {
+                SelectorUtils.CompiledPattern compiled = SelectorUtils.compile(pattern, isCaseSensitive);
+                for (String path : paths) {
+                    assertEquals(
+                        ReferenceSelectorUtils.matchPath(pattern, path, isCaseSensitive),
+                        compiled.matches(path),
+                        () -> "pattern " + pattern + ", path " + path + ", case sensitive " + isCaseSensitive
+                    );
+                }
+            }
+        }
+    }
+
+    private static String randomPath(Random random, String[] atoms, int length, boolean absolute) {
+        StringBuilder path = new StringBuilder(absolute ? "/" : "");
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+
+            String atom = atoms[random.nextInt(atoms.length)];
+            path.append(random.nextInt(8) == 0 ? atom.toUpperCase() : atom);
+        }
+        return path.toString();
+    }
+}